@@ -0,0 +1,65 @@
+package fa;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Metrics implementation that turns every count and timing into a
+ * JFR event, so they show up next to GC and allocation data in a
+ * flight recording. It is enabled only while a recording has the
+ * fa.Count or fa.Time event turned on.
+ */
+public class JfrMetrics implements Metrics {
+
+	@Name("fa.Count")
+	@Label("Automaton Counter")
+	@Category("Automata")
+	static class CountEvent extends Event {
+		@Label("Name")
+		String name;
+		@Label("Delta")
+		long delta;
+	}
+
+	@Name("fa.Time")
+	@Label("Automaton Timer")
+	@Category("Automata")
+	static class TimeEvent extends Event {
+		@Label("Name")
+		String name;
+		@Label("Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long nanos;
+	}
+
+	private static final CountEvent COUNT_PROBE = new CountEvent();
+	private static final TimeEvent TIME_PROBE = new TimeEvent();
+
+	@Override
+	public boolean isEnabled(){
+		return COUNT_PROBE.isEnabled() || TIME_PROBE.isEnabled();
+	}
+
+	@Override
+	public void count(String name, long delta){
+		CountEvent e = new CountEvent();
+		if(e.isEnabled()){
+			e.name = name;
+			e.delta = delta;
+			e.commit();
+		}
+	}
+
+	@Override
+	public void time(String name, long nanos){
+		TimeEvent e = new TimeEvent();
+		if(e.isEnabled()){
+			e.name = name;
+			e.nanos = nanos;
+			e.commit();
+		}
+	}
+}
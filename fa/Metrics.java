@@ -0,0 +1,69 @@
+package fa;
+
+/**
+ * Receives counters and timings from automaton construction
+ * and simulation. Instrumented code asks isEnabled() once per
+ * operation and skips all bookkeeping, including System.nanoTime(),
+ * when it returns false, so the NONE instance costs a single
+ * branch per operation.
+ */
+public interface Metrics {
+
+	/** subsets taken off the queue during NFA.getDFA() */
+	public static final String SUBSETS = "nfa.subsets";
+	/** epsilon closures computed during NFA.getDFA() */
+	public static final String CLOSURES = "nfa.closures";
+	/** DFA transitions added during NFA.getDFA() */
+	public static final String TRANSITIONS = "nfa.transitions";
+	/** times the [] trap state was created during NFA.getDFA() */
+	public static final String DEAD_STATES = "nfa.deadStates";
+	/** nanoseconds spent computing epsilon closures, including the ones subset successors need */
+	public static final String CLOSURE_TIME = "nfa.closureTime";
+	/** nanoseconds spent computing subset successors, not counting their epsilon closures */
+	public static final String EXPANSION_TIME = "nfa.expansionTime";
+	/** nanoseconds spent building the DFA object from the subsets */
+	public static final String ASSEMBLY_TIME = "nfa.assemblyTime";
+	/** strings run through accepts */
+	public static final String MATCHES = "dfa.matches";
+	/** characters read by accepts, fewer than the input length when a partial table rejects early */
+	public static final String MATCHED_CHARS = "dfa.matchedChars";
+	/** nanoseconds spent in accepts */
+	public static final String MATCH_TIME = "dfa.matchTime";
+
+	/**
+	 * Does nothing and reports itself disabled
+	 */
+	public static final Metrics NONE = new Metrics(){
+		@Override
+		public boolean isEnabled(){
+			return false;
+		}
+
+		@Override
+		public void count(String name, long delta){
+		}
+
+		@Override
+		public void time(String name, long nanos){
+		}
+	};
+
+	/**
+	 * @return false if calls to count and time would be ignored
+	 */
+	public abstract boolean isEnabled();
+
+	/**
+	 * Adds to a counter
+	 * @param name the counter name
+	 * @param delta the amount to add
+	 */
+	public abstract void count(String name, long delta);
+
+	/**
+	 * Records one timed interval
+	 * @param name the timer name
+	 * @param nanos the length of the interval in nanoseconds
+	 */
+	public abstract void time(String name, long nanos);
+}
@@ -0,0 +1,107 @@
+package fa;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe Metrics implementation that keeps running totals
+ * and can export them as JSON.
+ */
+public class MetricsRegistry implements Metrics {
+
+	private final ConcurrentHashMap<String, LongAdder> counters;
+	private final ConcurrentHashMap<String, Timer> timers;
+
+	/**
+	 * Totals for one timer
+	 */
+	private static class Timer {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	}
+
+	public MetricsRegistry(){
+		counters = new ConcurrentHashMap<String, LongAdder>();
+		timers = new ConcurrentHashMap<String, Timer>();
+	}
+
+	@Override
+	public boolean isEnabled(){
+		return true;
+	}
+
+	@Override
+	public void count(String name, long delta){
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+
+	@Override
+	public void time(String name, long nanos){
+		Timer t = timers.computeIfAbsent(name, k -> new Timer());
+		t.count.increment();
+		t.total.add(nanos);
+		t.max.accumulate(nanos);
+	}
+
+	/**
+	 * @param name the counter name
+	 * @return the counter value, 0 if it was never incremented
+	 */
+	public long getCount(String name){
+		LongAdder c = counters.get(name);
+		return c == null ? 0 : c.sum();
+	}
+
+	/**
+	 * @param name the timer name
+	 * @return the total nanoseconds recorded, 0 if never recorded
+	 */
+	public long getTotalNanos(String name){
+		Timer t = timers.get(name);
+		return t == null ? 0 : t.total.sum();
+	}
+
+	/**
+	 * Clears all counters and timers
+	 */
+	public void reset(){
+		counters.clear();
+		timers.clear();
+	}
+
+	/**
+	 * Construct a JSON snapshot, for example
+	 * {"counters":{"nfa.subsets":4},
+	 *  "timers":{"dfa.matchTime":{"count":2,"totalNanos":800,"maxNanos":500}}}
+	 * Names are sorted so snapshots diff cleanly.
+	 * @return the current values as a JSON object
+	 */
+	public String toJson(){
+		StringBuilder s = new StringBuilder("{\"counters\":{");
+		String sep = "";
+		for(Map.Entry<String, LongAdder> e : new TreeMap<String, LongAdder>(counters).entrySet()){
+			s.append(sep).append('"').append(e.getKey()).append("\":").append(e.getValue().sum());
+			sep = ",";
+		}
+		s.append("},\"timers\":{");
+		sep = "";
+		for(Map.Entry<String, Timer> e : new TreeMap<String, Timer>(timers).entrySet()){
+			Timer t = e.getValue();
+			s.append(sep).append('"').append(e.getKey()).append("\":{\"count\":").append(t.count.sum())
+				.append(",\"totalNanos\":").append(t.total.sum())
+				.append(",\"maxNanos\":").append(t.max.get()).append('}');
+			sep = ",";
+		}
+		s.append("}}");
+		return s.toString();
+	}
+
+	@Override
+	public String toString(){
+		return toJson();
+	}
+}
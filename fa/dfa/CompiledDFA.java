@@ -0,0 +1,603 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import fa.Metrics;
+
+/**
+ * Read-only, table driven form of a DFA.
+ * States are numbered 0..n-1 in the order they were added to
+ * the source DFA and symbols are numbered in alphabet order.
+ * The transitions are kept in a DFATable: a flat array on the heap,
+ * where a transition is a single lookup, or an OffHeapTable.
+ * Matching, batching and search work the same on either.
+ */
+public class CompiledDFA {
+
+	/** marks a missing transition or a symbol outside the alphabet */
+	public static final int NONE = -1;
+
+	/** number of inputs acceptsAll steps together */
+	public static final int LANES = 8;
+
+	private final DFATable table;
+	private final int numStates;
+	private final int numSymbols;
+	private final int start;
+	private final String[] names;//null if the table came without names
+	private final SymbolMap symbols;
+	private Metrics metrics = Metrics.NONE;
+	private volatile Predecessors predecessors;//built by getPredecessors on first use
+
+	/**
+	 * Builds the table from the states and transitions of dfa
+	 * @param dfa the DFA to compile, it must have a start state
+	 */
+	public CompiledDFA(DFA dfa){
+		this(dfa, false);
+	}
+
+	/**
+	 * Builds the table from the states and transitions of dfa.
+	 * In partial mode every transition into a state that cannot reach
+	 * a final state, such as the [] trap state, is dropped, so accepts
+	 * rejects at the first such transition instead of reading the rest
+	 * of the input. The language is the same either way.
+	 * @param dfa the DFA to compile, it must have a start state
+	 * @param partial true to drop transitions into dead states
+	 */
+	public CompiledDFA(DFA dfa, boolean partial){
+		Set<DFAState> states = dfa.getStates();
+		Set<Character> abc = dfa.getABC();
+		numStates = states.size();
+		numSymbols = abc.size();
+
+		char[] abcChars = new char[numSymbols];
+		int sym = 0;
+		for(char c : abc){
+			abcChars[sym++] = c;
+		}
+		symbols = new SymbolMap(abcChars);
+
+		HashMap<DFAState, Integer> ids = new HashMap<DFAState, Integer>();
+		names = new String[numStates];
+		boolean[] finals = new boolean[numStates];
+		int id = 0;
+		for(DFAState s : states){
+			ids.put(s, id);
+			names[id] = s.getName();
+			finals[id] = s.isFinal();
+			id++;
+		}
+		start = ids.get(dfa.getStartState());
+
+		int[] delta = new int[cells(numStates, numSymbols)];
+		for(DFAState s : states){
+			int row = ids.get(s) * numSymbols;
+			for(int i = 0; i < numSymbols; i++){
+				DFAState to = s.peekTo(abcChars[i]);
+				delta[row + i] = to == null ? NONE : ids.get(to);
+			}
+		}
+		//the table shares these arrays, so live and the pruning below show through
+		boolean[] live = new boolean[numStates];
+		table = new HeapTable(start, abcChars, delta, finals, live);
+		coAccessible(table, live);
+		if(partial){
+			for(int i = 0; i < delta.length; i++){
+				if(delta[i] != NONE && !live[delta[i]]){
+					delta[i] = NONE;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wraps a table, such as one mapped with OffHeapTable.map.
+	 * Tables carry no state names, so getName returns the state id.
+	 * @param table the transitions and states
+	 */
+	public CompiledDFA(DFATable table){
+		this.table = table;
+		names = null;
+		numStates = table.getNumStates();
+		numSymbols = table.getNumSymbols();
+		start = table.getStart();
+		char[] abc = new char[numSymbols];
+		for(int i = 0; i < numSymbols; i++){
+			abc[i] = table.getSymbol(i);
+		}
+		symbols = new SymbolMap(abc);
+	}
+
+	/**
+	 * Copies the table into a direct buffer outside the Java heap,
+	 * see OffHeapTable. Metrics are kept; state names are not, so the
+	 * copy holds no per-state objects and getName returns the state id.
+	 * To build an off-heap table without a heap copy first, use
+	 * new CompiledDFA(OffHeapTable.of(dfa, partial)).
+	 * @return the off-heap copy
+	 */
+	public CompiledDFA offHeap(){
+		CompiledDFA ret = new CompiledDFA(OffHeapTable.of(table));
+		ret.metrics = metrics;
+		return ret;
+	}
+
+	/**
+	 * @return numStates * numSymbols, the number of transitions
+	 * @throws IllegalArgumentException if that many do not fit in one Java array
+	 */
+	static int cells(int numStates, int numSymbols){
+		long ret = (long) numStates * numSymbols;
+		if(ret > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException("a table of " + numStates + " states and " + numSymbols
+				+ " symbols has too many transitions for one array");
+		}
+		return (int) ret;
+	}
+
+	/**
+	 * Copy of src with its states renumbered
+	 * @param src the table to copy
+	 * @param order the old id of each new id
+	 * @param narrow true to store the transitions as shorts
+	 */
+	private CompiledDFA(CompiledDFA src, int[] order, boolean narrow){
+		numStates = src.numStates;
+		numSymbols = src.numSymbols;
+		symbols = src.symbols;
+		metrics = src.metrics;
+		int[] newId = new int[numStates];
+		for(int i = 0; i < numStates; i++){
+			newId[order[i]] = i;
+		}
+		start = newId[src.start];
+		names = src.names == null ? null : new String[numStates];
+		boolean[] finals = new boolean[numStates];
+		boolean[] live = new boolean[numStates];
+		int[] wide = narrow ? null : new int[cells(numStates, numSymbols)];
+		short[] small = narrow ? new short[cells(numStates, numSymbols)] : null;
+		for(int i = 0; i < numStates; i++){
+			int old = order[i];
+			if(names != null){
+				names[i] = src.names[old];
+			}
+			finals[i] = src.isFinal(old);
+			live[i] = src.isLive(old);
+			for(int sym = 0; sym < numSymbols; sym++){
+				int to = src.next(old, sym);
+				to = to == NONE ? NONE : newId[to];
+				if(narrow){
+					small[i * numSymbols + sym] = (short) to;
+				} else {
+					wide[i * numSymbols + sym] = to;
+				}
+			}
+		}
+		char[] abc = new char[numSymbols];
+		for(int i = 0; i < numSymbols; i++){
+			abc[i] = src.getSymbol(i);
+		}
+		table = narrow ? new ShortTable(start, abc, small, finals, live)
+			: new HeapTable(start, abc, wide, finals, live);
+	}
+
+	/**
+	 * Profile guided renumbering. Runs every string of the corpus through
+	 * the table, counting how often each state is visited and each
+	 * transition is taken, then numbers the states so that the hottest
+	 * state comes first and each state is followed by its most frequent
+	 * successor that is not placed yet, chaining as far as the profile
+	 * goes. Rows that are used one after the other in the table walk end
+	 * up next to each other in memory, which cuts cache misses on large
+	 * tables. States the corpus never reaches keep their relative order
+	 * at the end. The language and state names are unchanged. The copy
+	 * is always on the heap; call offHeap on it to move it back.
+	 * @param corpus sample inputs, representative of real traffic
+	 * @param narrow true to store state ids as shorts, which halves the
+	 * table; ignored if there are more states than fit in a short
+	 * @return the renumbered table
+	 */
+	public CompiledDFA optimize(Iterable<? extends CharSequence> corpus, boolean narrow){
+		//counts saturate rather than wrap, so the profile stays as small as the table
+		int[] visits = new int[numStates];
+		int[] edges = new int[cells(numStates, numSymbols)];
+		for(CharSequence input : corpus){
+			int len = input.length();
+			if(len == 1 && input.charAt(0) == 'e'){
+				len = 0;
+			}
+			int q = start;
+			bump(visits, q);
+			for(int i = 0; i < len; i++){
+				int sym = symbolOf(input.charAt(i));
+				int to = next(q, sym);
+				if(to == NONE){
+					break;
+				}
+				bump(edges, q * numSymbols + sym);
+				bump(visits, to);
+				q = to;
+			}
+		}
+		//hottest first, ties keep the old order
+		Integer[] byHeat = IntStream.range(0, numStates).boxed().toArray(Integer[]::new);
+		Arrays.sort(byHeat, (a, b) -> Integer.compare(visits[b], visits[a]));
+		int[] order = new int[numStates];
+		boolean[] placed = new boolean[numStates];
+		int n = 0;
+		for(int head : byHeat){
+			if(visits[head] == 0){
+				break;
+			}
+			//follow the hottest edge out of the last placed state
+			for(int q = head; q != NONE && !placed[q]; ){
+				placed[q] = true;
+				order[n++] = q;
+				int hot = NONE;
+				int best = 0;
+				for(int sym = 0; sym < numSymbols; sym++){
+					int to = next(q, sym);
+					if(to != NONE && !placed[to] && edges[q * numSymbols + sym] > best){
+						best = edges[q * numSymbols + sym];
+						hot = to;
+					}
+				}
+				q = hot;
+			}
+		}
+		for(int q = 0; q < numStates; q++){
+			if(!placed[q]){
+				order[n++] = q;
+			}
+		}
+		return new CompiledDFA(this, order, narrow && numStates <= ShortTable.MAX_STATES);
+	}
+
+	private static void bump(int[] counts, int i){
+		if(counts[i] != Integer.MAX_VALUE){
+			counts[i]++;
+		}
+	}
+
+	/**
+	 * Marks every state from which some final state can be reached
+	 * by walking the transitions backwards from F.
+	 * @param table the transitions and final states
+	 * @param ret receives the live flags indexed by state id
+	 */
+	private static void coAccessible(DFATable table, boolean[] ret){
+		int numStates = table.getNumStates();
+		int numSymbols = table.getNumSymbols();
+		Predecessors preds = new Predecessors(table);
+		int[] stack = new int[numStates];
+		int top = 0;
+		for(int q = 0; q < numStates; q++){
+			if(table.isFinal(q)){
+				ret[q] = true;
+				stack[top++] = q;
+			}
+		}
+		while(top > 0){
+			int q = stack[--top];
+			//the predecessors of q on every symbol are one run
+			for(int i = preds.from(q, 0), end = preds.from(q, numSymbols); i < end; i++){
+				int p = preds.get(i);
+				if(!ret[p]){
+					ret[p] = true;
+					stack[top++] = p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The transitions of a table taken backwards. The states p with
+	 * next(p, sym) == q are get(i) for i in [from(q, sym), to(q, sym)).
+	 */
+	public static final class Predecessors {
+		private final int numSymbols;
+		private final int[] offsets;//per (state, symbol), row major like the table
+		private final int[] states;
+
+		private Predecessors(DFATable table){
+			int n = table.getNumStates();
+			numSymbols = table.getNumSymbols();
+			offsets = new int[cells(n, numSymbols) + 1];
+			for(int p = 0; p < n; p++){
+				for(int sym = 0; sym < numSymbols; sym++){
+					int t = table.next(p, sym);
+					if(t != NONE){
+						offsets[t * numSymbols + sym + 1]++;
+					}
+				}
+			}
+			for(int i = 1; i < offsets.length; i++){
+				offsets[i] += offsets[i - 1];
+			}
+			states = new int[offsets[offsets.length - 1]];
+			int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+			for(int p = 0; p < n; p++){
+				for(int sym = 0; sym < numSymbols; sym++){
+					int t = table.next(p, sym);
+					if(t != NONE){
+						states[fill[t * numSymbols + sym]++] = p;
+					}
+				}
+			}
+		}
+
+		/**
+		 * @param state the target state id
+		 * @param sym the symbol id
+		 * @return the first index of the predecessors of state on sym
+		 */
+		public int from(int state, int sym){
+			return offsets[state * numSymbols + sym];
+		}
+
+		/**
+		 * @param state the target state id
+		 * @param sym the symbol id
+		 * @return one past the last index of the predecessors of state on sym
+		 */
+		public int to(int state, int sym){
+			return offsets[state * numSymbols + sym + 1];
+		}
+
+		/**
+		 * @param i an index from from/to
+		 * @return the predecessor state id
+		 */
+		public int get(int i){
+			return states[i];
+		}
+	}
+
+	/**
+	 * Builds, once, the reverse of the table. It takes about as much
+	 * memory as the table itself, so only reverse searches ask for it.
+	 * @return the predecessors of every state on every symbol
+	 */
+	public Predecessors getPredecessors(){
+		Predecessors ret = predecessors;
+		if(ret == null){
+			ret = new Predecessors(table);
+			predecessors = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Maps a character to its symbol id
+	 * @param c the input character
+	 * @return the symbol id or NONE if c is not in the alphabet
+	 */
+	public int symbolOf(char c){
+		return symbols.symbolOf(c);
+	}
+
+	/**
+	 * Transition on a symbol id
+	 * @param state the source state id
+	 * @param sym the symbol id, may be NONE
+	 * @return the target state id or NONE
+	 */
+	public int next(int state, int sym){
+		if(sym == NONE){
+			return NONE;
+		}
+		return table.next(state, sym);
+	}
+
+	/**
+	 * Transition on an input character
+	 * @param state the source state id
+	 * @param c the input character
+	 * @return the target state id or NONE
+	 */
+	public int step(int state, char c){
+		return next(state, symbolOf(c));
+	}
+
+	/**
+	 * Runs the table on the input, following the same conventions
+	 * as DFA.accepts: the single string "e" is the empty string.
+	 * Unlike DFA.accepts, a character outside the alphabet rejects.
+	 * @param input the input string
+	 * @return true if input is in the language of the DFA
+	 */
+	public boolean accepts(CharSequence input){
+		if(metrics.isEnabled()){
+			long t0 = System.nanoTime();
+			long run = simulate(input);
+			metrics.time(Metrics.MATCH_TIME, System.nanoTime() - t0);
+			metrics.count(Metrics.MATCHES, 1);
+			metrics.count(Metrics.MATCHED_CHARS, run >>> 1);
+			return (run & 1) != 0;
+		}
+		return (simulate(input) & 1) != 0;
+	}
+
+	/**
+	 * @return the number of characters read, shifted left by one,
+	 * with the low bit set if the input is accepted
+	 */
+	private long simulate(CharSequence input){
+		int len = input.length();
+		if(len == 1 && input.charAt(0) == 'e'){
+			return table.isFinal(start) ? 1 : 0;
+		}
+		int q = start;
+		for(int i = 0; i < len; i++){
+			q = step(q, input.charAt(i));
+			if(q == NONE){
+				//rejected after reading i + 1 characters
+				return (long) (i + 1) << 1;
+			}
+		}
+		return (long) len << 1 | (table.isFinal(q) ? 1 : 0);
+	}
+
+	/**
+	 * Runs many inputs through the table, LANES at a time in lockstep.
+	 * Each round takes one step in every lane, so the table loads of
+	 * different inputs do not depend on each other and their latencies
+	 * overlap instead of adding up. Throughput is best when the inputs
+	 * in a group have similar lengths. The results are the same as
+	 * calling accepts on each input.
+	 * @param inputs the input strings
+	 * @return for each input, true if it is in the language of the DFA
+	 */
+	public boolean[] acceptsAll(CharSequence... inputs){
+		boolean[] ret = new boolean[inputs.length];
+		acceptsAll(inputs, ret);
+		return ret;
+	}
+
+	/**
+	 * Batch form of accepts that writes into a caller supplied array,
+	 * see acceptsAll(CharSequence...)
+	 * @param inputs the input strings
+	 * @param results receives the answer for inputs[i] at results[i]
+	 */
+	public void acceptsAll(CharSequence[] inputs, boolean[] results){
+		long t0 = 0;
+		long chars = 0;
+		if(metrics.isEnabled()){
+			t0 = System.nanoTime();
+		}
+		//lanes 0..active-1 are busy; a finished lane is refilled with the
+		//next input right away so every round steps LANES inputs
+		CharSequence[] lane = new CharSequence[LANES];
+		int[] which = new int[LANES];
+		int[] q = new int[LANES];
+		int[] pos = new int[LANES];
+		int[] len = new int[LANES];
+		int[] read = new int[LANES];//characters read when a lane fell off the table
+		int active = 0;
+		int next = 0;
+		while(true){
+			//refill idle lanes, answering empty inputs on the spot
+			while(active < LANES && next < inputs.length){
+				CharSequence in = inputs[next];
+				int n = in.length();
+				//same as accepts: "e" is the empty string
+				if(n == 0 || (n == 1 && in.charAt(0) == 'e')){
+					results[next++] = table.isFinal(start);
+					continue;
+				}
+				lane[active] = in;
+				which[active] = next++;
+				q[active] = start;
+				pos[active] = 0;
+				len[active] = n;
+				active++;
+			}
+			if(active == 0){
+				break;
+			}
+			//every busy lane can take this many steps without a length check
+			int rounds = Integer.MAX_VALUE;
+			for(int l = 0; l < active; l++){
+				rounds = Math.min(rounds, len[l] - pos[l]);
+			}
+			//a lane that falls off the table stays at NONE until it is retired
+			for(int i = 0; i < rounds; i++){
+				for(int l = 0; l < active; l++){
+					int s = q[l];
+					if(s != NONE){
+						s = next(s, symbolOf(lane[l].charAt(pos[l] + i)));
+						q[l] = s;
+						if(s == NONE){
+							read[l] = pos[l] + i + 1;
+						}
+					}
+				}
+			}
+			//retire lanes that reached the end of their input or fell off the table
+			for(int l = 0; l < active; ){
+				pos[l] += rounds;
+				if(pos[l] == len[l] || q[l] == NONE){
+					results[which[l]] = q[l] != NONE && table.isFinal(q[l]);
+					chars += q[l] == NONE ? read[l] : len[l];
+					active--;
+					lane[l] = lane[active];
+					which[l] = which[active];
+					q[l] = q[active];
+					pos[l] = pos[active];
+					len[l] = len[active];
+					read[l] = read[active];
+					lane[active] = null;
+				} else {
+					l++;
+				}
+			}
+		}
+		if(metrics.isEnabled()){
+			metrics.time(Metrics.MATCH_TIME, System.nanoTime() - t0);
+			metrics.count(Metrics.MATCHES, inputs.length);
+			metrics.count(Metrics.MATCHED_CHARS, chars);
+		}
+	}
+
+	/**
+	 * Sets where accepts reports its counts and timings
+	 * @param metrics the sink, Metrics.NONE to turn reporting off
+	 */
+	public void setMetrics(Metrics metrics){
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the storage behind this table
+	 */
+	public DFATable getTable(){
+		return table;
+	}
+
+	public int getStart(){
+		return start;
+	}
+
+	public int getNumStates(){
+		return numStates;
+	}
+
+	public int getNumSymbols(){
+		return numSymbols;
+	}
+
+	/**
+	 * @param sym a symbol id
+	 * @return the character for that symbol
+	 */
+	public char getSymbol(int sym){
+		return symbols.getSymbol(sym);
+	}
+
+	/**
+	 * @param state a state id
+	 * @return the label the state had in the source DFA,
+	 * or the state id if the table came without names
+	 */
+	public String getName(int state){
+		return names == null ? Integer.toString(state) : names[state];
+	}
+
+	public boolean isFinal(int state){
+		return table.isFinal(state);
+	}
+
+	/**
+	 * @param state a state id
+	 * @return true if some final state is reachable from state
+	 */
+	public boolean isLive(int state){
+		return table.isLive(state);
+	}
+}
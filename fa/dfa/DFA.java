@@ -1,8 +1,14 @@
 package fa.dfa;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import fa.Metrics;
+
 /**
  * Implementation of DFA class to be used
  * in p1p2
@@ -11,12 +17,24 @@ import java.util.Set;
  */
 public class DFA implements DFAInterface{
 	private Set<DFAState> states;
+	private HashMap<String, DFAState> byName;//index of states by label
 	private DFAState start;
 	private Set<Character> ordAbc;
+	private Metrics metrics;
 
 	public DFA(){
 		states = new LinkedHashSet<DFAState>();
+		byName = new HashMap<String, DFAState>();
 		ordAbc = new LinkedHashSet<Character>();
+		metrics = Metrics.NONE;
+	}
+
+	/**
+	 * Sets where accepts reports its counts and timings
+	 * @param metrics the sink, Metrics.NONE to turn reporting off
+	 */
+	public void setMetrics(Metrics metrics){
+		this.metrics = metrics;
 	}
 
 	/* (non-Javadoc)
@@ -33,6 +51,15 @@ public class DFA implements DFAInterface{
 		}
 		start = s;
 	}
+
+	/**
+	 * Adds the initial state to the DFA instance as a final state
+	 * @param name is the label of the start state
+	 */
+	public void addFinalStartState(String name){
+		addFinalState(name);
+		start = checkIfExists(name);
+	}
 	/* (non-Javadoc)
 	 * @see p1.DFAInterface#addState(java.lang.String)
 	 */
@@ -63,6 +90,7 @@ public class DFA implements DFAInterface{
 
 	private void addState(DFAState s){
 		states.add(s);
+		byName.put(s.getName(), s);
 	}
 
 	/* (non-Javadoc)
@@ -92,14 +120,7 @@ public class DFA implements DFAInterface{
 	 * @return null if no state exist, or DFAState object otherwise.
 	 */
 	private DFAState checkIfExists(String name){
-		DFAState ret = null;
-		for(DFAState s : states){
-			if(s.getName().equals(name)){
-				ret = s;
-				break;
-			}
-		}
-		return ret;
+		return byName.get(name);
 	}
 
 	/** (non-Javadoc)
@@ -134,7 +155,9 @@ public class DFA implements DFAInterface{
 		for(DFAState state : states){
 			s += String.format("%10s",state.toString());
 			for(char c : ordAbc){
-				s += String.format("%10s", state.getTo(c).toString());
+				//a trimmed DFA can be missing transitions
+				DFAState to = state.peekTo(c);
+				s += String.format("%10s", to == null ? "-" : to.toString());
 			}
 			s+="\n";
 		}
@@ -146,18 +169,115 @@ public class DFA implements DFAInterface{
 
 	@Override
 	public boolean accepts(String input) {
-		boolean ret = false;
-		char[] inputString = input.toCharArray();
+		if(metrics.isEnabled()){
+			long t0 = System.nanoTime();
+			long run = simulate(input);
+			metrics.time(Metrics.MATCH_TIME, System.nanoTime() - t0);
+			metrics.count(Metrics.MATCHES, 1);
+			metrics.count(Metrics.MATCHED_CHARS, run >>> 1);
+			return (run & 1) != 0;
+		}
+		return (simulate(input) & 1) != 0;
+	}
+
+	/**
+	 * @return the number of characters read, shifted left by one,
+	 * with the low bit set if the input is accepted
+	 */
+	private long simulate(String input) {
+		int len = input.length();
 		DFAState currState = start;
-		//iterate over the chars
-		if(!(inputString.length==1 && inputString[0] == 'e')){
-			for(char c : inputString){
-				currState = currState.getTo(c);
+		//iterate over the chars in place, without copying the input
+		if(len==1 && input.charAt(0) == 'e'){
+			len = 0;
+		} else {
+			for(int i = 0; i < len; i++){
+				char c = input.charAt(i);
+				DFAState next = currState.peekTo(c);
+				if(next == null){
+					//missing transition of a trimmed DFA: reject right away,
+					//a symbol outside the alphabet is still an error
+					if(ordAbc.contains(c)){
+						return (long) (i + 1) << 1;
+					}
+					next = currState.getTo(c);
+				}
+				currState = next;
+			}
+		}
+		return (long) len << 1 | (currState.isFinal() ? 1 : 0);
+	}
+
+	/**
+	 * Builds a copy of this DFA that keeps only the states that are
+	 * reachable from the start state and from which a final state is
+	 * reachable, together with the transitions between them. The start
+	 * state is always kept. The result is a partial DFA: transitions into
+	 * removed states, such as the [] trap state, are left out and accepts
+	 * rejects as soon as it meets one. The alphabet is unchanged.
+	 * @return the trimmed DFA
+	 */
+	public DFA trim(){
+		//accessible: forward search from the start state
+		Set<DFAState> reached = new HashSet<DFAState>();
+		ArrayDeque<DFAState> work = new ArrayDeque<DFAState>();
+		HashMap<DFAState, Set<DFAState>> preds = new HashMap<DFAState, Set<DFAState>>();
+		reached.add(start);
+		work.add(start);
+		while(!work.isEmpty()){
+			DFAState from = work.remove();
+			for(char c : ordAbc){
+				DFAState to = from.peekTo(c);
+				if(to == null){
+					continue;
+				}
+				preds.computeIfAbsent(to, k -> new HashSet<DFAState>()).add(from);
+				if(reached.add(to)){
+					work.add(to);
+				}
+			}
+		}
+		//co-accessible: backward search from the reachable final states
+		Set<DFAState> useful = new HashSet<DFAState>();
+		for(DFAState state : reached){
+			if(state.isFinal()){
+				useful.add(state);
+				work.add(state);
+			}
+		}
+		while(!work.isEmpty()){
+			for(DFAState from : preds.getOrDefault(work.remove(), Collections.<DFAState>emptySet())){
+				if(useful.add(from)){
+					work.add(from);
+				}
+			}
+		}
+		useful.add(start);
+
+		DFA ret = new DFA();
+		ret.ordAbc.addAll(ordAbc);
+		ret.metrics = metrics;
+		HashMap<DFAState, DFAState> copies = new HashMap<DFAState, DFAState>();
+		for(DFAState state : states){
+			if(useful.contains(state)){
+				DFAState copy = new DFAState(state.getName(), state.isFinal());
+				ret.addState(copy);
+				copies.put(state, copy);
+			}
+		}
+		ret.start = copies.get(start);
+		for(DFAState state : states){
+			DFAState from = copies.get(state);
+			if(from == null){
+				continue;
+			}
+			for(char c : ordAbc){
+				DFAState to = copies.get(state.peekTo(c));
+				if(to != null){
+					from.addTransition(c, to);
+				}
 			}
 		}
-		if(currState.isFinal()){
-			ret = true;
-		} 
 		return ret;
 	}
 
@@ -0,0 +1,379 @@
+package fa.dfa;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds the substrings of a text that are in the language of a DFA,
+ * using leftmost-longest semantics. A search runs in three passes:
+ * <ol>
+ * <li>a forward scan with the DFA for .*L, built lazily over subsets
+ * of states, stops at the earliest position where some match ends;</li>
+ * <li>a backward scan from that position with the reverse DFA, also
+ * built lazily, finds where that match starts, which bounds where
+ * the leftmost match can start;</li>
+ * <li>a forward scan that tracks the smallest start for every DFA
+ * state resolves the leftmost start and extends it to the longest end.</li>
+ * </ol>
+ * Text that contains no match only ever goes through the first pass,
+ * which is one table lookup per character.
+ * Input is read in place through CharSequence (so a CharBuffer can be
+ * passed directly) or a ByteBuffer whose bytes are read as ISO-8859-1.
+ * Instances keep per-search scratch state and are not thread safe.
+ */
+public class DFASearch {
+
+	//bytes each subset cache may hold before it is flushed
+	private static final long CACHE_BYTES = 4L << 20;
+
+	private final CompiledDFA table;
+	private final Forward forward;
+	private final Reverse reverse;
+	private final BitSet forwardStart;
+	private final BitSet reverseStart;
+	//thread lists for the resolving pass
+	private int[] curStates, curStarts, nextStates, nextStarts;
+	private final int[] slot;
+
+	/**
+	 * A match [start, end) in the searched text
+	 */
+	public static class Match {
+		private final int start;
+		private final int end;
+
+		public Match(int start, int end){
+			this.start = start;
+			this.end = end;
+		}
+
+		public int getStart(){
+			return start;
+		}
+
+		public int getEnd(){
+			return end;
+		}
+
+		public int length(){
+			return end - start;
+		}
+
+		@Override
+		public String toString(){
+			return "[" + start + ", " + end + ")";
+		}
+	}
+
+	/**
+	 * @param dfa the DFA whose language is searched for
+	 */
+	public DFASearch(DFA dfa){
+		this(new CompiledDFA(dfa));
+	}
+
+	/**
+	 * @param table the compiled DFA whose language is searched for
+	 */
+	public DFASearch(CompiledDFA table){
+		this.table = table;
+		int n = table.getNumStates();
+		forward = new Forward();
+		reverse = new Reverse();
+		//subsets only grow as far as their highest state, so none are presized
+		forwardStart = new BitSet();
+		if(table.isLive(table.getStart())){
+			forwardStart.set(table.getStart());
+		}
+		reverseStart = new BitSet();
+		for(int q = 0; q < n; q++){
+			if(table.isFinal(q)){
+				reverseStart.set(q);
+			}
+		}
+		curStates = new int[n];
+		curStarts = new int[n];
+		nextStates = new int[n];
+		nextStarts = new int[n];
+		slot = new int[n];
+		Arrays.fill(slot, -1);
+	}
+
+	/**
+	 * Finds the leftmost-longest match at or after from
+	 * @param text the text to search
+	 * @param from the index to start searching at
+	 * @return the match or null if there is none
+	 */
+	public Match find(CharSequence text, int from){
+		if(forwardStart.isEmpty() || from > text.length()){
+			return null;
+		}
+		int end = earliestEnd(text, from);
+		if(end < 0){
+			return null;
+		}
+		return resolve(text, from, leftmostStart(text, from, end));
+	}
+
+	/**
+	 * Finds the leftmost-longest match at or after from
+	 * in the remaining bytes of buf, without changing its position
+	 * @param buf the bytes to search, read as ISO-8859-1
+	 * @param from the index relative to the buffer position
+	 * @return the match, relative to the buffer position, or null
+	 */
+	public Match find(ByteBuffer buf, int from){
+		return find(new ByteSequence(buf), from);
+	}
+
+	/**
+	 * Finds all non-overlapping matches, left to right.
+	 * After an empty match the search resumes one character later.
+	 * @param text the text to search
+	 * @return the matches in order
+	 */
+	public List<Match> findAll(CharSequence text){
+		List<Match> ret = new ArrayList<Match>();
+		int from = 0;
+		Match m;
+		while((m = find(text, from)) != null){
+			ret.add(m);
+			from = m.length() == 0 ? m.getEnd() + 1 : m.getEnd();
+		}
+		return ret;
+	}
+
+	/**
+	 * @param buf the bytes to search, read as ISO-8859-1
+	 * @return the matches in order, relative to the buffer position
+	 */
+	public List<Match> findAll(ByteBuffer buf){
+		return findAll(new ByteSequence(buf));
+	}
+
+	/**
+	 * First pass: run .*L forward and stop at the first match end
+	 * @return the end index or -1 if no match ends in text
+	 */
+	private int earliestEnd(CharSequence text, int from){
+		int s = forward.intern(forwardStart);
+		if(forward.isMatch(s)){
+			return from;
+		}
+		int len = text.length();
+		for(int i = from; i < len; i++){
+			s = forward.next(s, table.symbolOf(text.charAt(i)));
+			if(forward.isMatch(s)){
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Second pass: run the reverse DFA backwards from a match end
+	 * @return the smallest start of a match ending at end
+	 */
+	private int leftmostStart(CharSequence text, int from, int end){
+		int s = reverse.intern(reverseStart);
+		int ret = reverse.isMatch(s) ? end : -1;
+		for(int i = end - 1; i >= from; i--){
+			s = reverse.next(s, table.symbolOf(text.charAt(i)));
+			if(reverse.isEmpty(s)){
+				break;
+			}
+			if(reverse.isMatch(s)){
+				ret = i;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Third pass: start a thread at every index in [from, bound] and run
+	 * them together, keeping only the smallest start per DFA state since
+	 * threads in the same state have the same future. A match exists at
+	 * bound, so the loop ends once every thread that could still beat the
+	 * best match so far has died.
+	 * @return the leftmost-longest match
+	 */
+	private Match resolve(CharSequence text, int from, int bound){
+		int start = table.getStart();
+		int len = text.length();
+		int curN = 0;
+		int bestStart = -1;
+		int bestEnd = -1;
+		for(int i = from; ; i++){
+			if(bestStart < 0 && i <= bound && !contains(curStates, curN, start)){
+				curStates[curN] = start;
+				curStarts[curN++] = i;
+			}
+			int keep = 0;
+			for(int k = 0; k < curN; k++){
+				int q = curStates[k];
+				int s = curStarts[k];
+				if(table.isFinal(q) && (bestStart < 0 || s <= bestStart)){
+					bestStart = s;
+					bestEnd = i;
+				}
+				if(bestStart < 0 || s <= bestStart){
+					curStates[keep] = q;
+					curStarts[keep++] = s;
+				}
+			}
+			curN = keep;
+			if(i == len || (curN == 0 && (bestStart >= 0 || i >= bound))){
+				break;
+			}
+			int sym = table.symbolOf(text.charAt(i));
+			int nextN = 0;
+			for(int k = 0; k < curN; k++){
+				int t = table.next(curStates[k], sym);
+				if(t == CompiledDFA.NONE || !table.isLive(t)){
+					continue;
+				}
+				int j = slot[t];
+				if(j < 0){
+					slot[t] = nextN;
+					nextStates[nextN] = t;
+					nextStarts[nextN++] = curStarts[k];
+				} else if(curStarts[k] < nextStarts[j]){
+					nextStarts[j] = curStarts[k];
+				}
+			}
+			for(int k = 0; k < nextN; k++){
+				slot[nextStates[k]] = -1;
+			}
+			int[] tmp = curStates;
+			curStates = nextStates;
+			nextStates = tmp;
+			tmp = curStarts;
+			curStarts = nextStarts;
+			nextStarts = tmp;
+			curN = nextN;
+		}
+		return bestStart < 0 ? null : new Match(bestStart, bestEnd);
+	}
+
+	private static boolean contains(int[] arr, int n, int v){
+		for(int i = 0; i < n; i++){
+			if(arr[i] == v){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * DFA for .*L: the start state is added back after every step
+	 */
+	private class Forward extends SubsetCache {
+		Forward(){
+			super(table.getNumSymbols(), CACHE_BYTES);
+		}
+
+		@Override
+		protected BitSet step(BitSet from, int sym){
+			BitSet ret = new BitSet();
+			for(int q = from.nextSetBit(0); q >= 0; q = from.nextSetBit(q + 1)){
+				int t = table.next(q, sym);
+				if(t != CompiledDFA.NONE && table.isLive(t)){
+					ret.set(t);
+				}
+			}
+			ret.or(forwardStart);
+			return ret;
+		}
+
+		@Override
+		protected boolean matches(BitSet set){
+			for(int q = set.nextSetBit(0); q >= 0; q = set.nextSetBit(q + 1)){
+				if(table.isFinal(q)){
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Reverse DFA: a subset holds the states that reach F on the
+	 * characters read so far, taken right to left
+	 */
+	private class Reverse extends SubsetCache {
+		private CompiledDFA.Predecessors preds;
+
+		Reverse(){
+			super(table.getNumSymbols(), CACHE_BYTES);
+		}
+
+		@Override
+		protected BitSet step(BitSet from, int sym){
+			BitSet ret = new BitSet();
+			if(sym == CompiledDFA.NONE){
+				return ret;
+			}
+			if(preds == null){
+				preds = table.getPredecessors();
+			}
+			for(int q = from.nextSetBit(0); q >= 0; q = from.nextSetBit(q + 1)){
+				for(int i = preds.from(q, sym), end = preds.to(q, sym); i < end; i++){
+					ret.set(preds.get(i));
+				}
+			}
+			return ret;
+		}
+
+		@Override
+		protected boolean matches(BitSet set){
+			return set.get(table.getStart());
+		}
+	}
+
+	/**
+	 * Read-only CharSequence view of the remaining bytes of a buffer
+	 */
+	private static class ByteSequence implements CharSequence {
+		private final ByteBuffer buf;
+		private final int offset;
+		private final int length;
+
+		ByteSequence(ByteBuffer buf){
+			this(buf, buf.position(), buf.remaining());
+		}
+
+		private ByteSequence(ByteBuffer buf, int offset, int length){
+			this.buf = buf;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length(){
+			return length;
+		}
+
+		@Override
+		public char charAt(int index){
+			return (char) (buf.get(offset + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end){
+			return new ByteSequence(buf, offset + start, end - start);
+		}
+
+		@Override
+		public String toString(){
+			StringBuilder sb = new StringBuilder(length);
+			for(int i = 0; i < length; i++){
+				sb.append(charAt(i));
+			}
+			return sb.toString();
+		}
+	}
+}
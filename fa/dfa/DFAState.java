@@ -1,7 +1,5 @@
 package fa.dfa;
 
-import java.util.HashMap;
-
 import fa.State;
 
 /**
@@ -15,7 +13,11 @@ import fa.State;
 public class DFAState extends State{
 	
 
-	private HashMap<Character,DFAState> delta;//delta
+	//delta as an open addressed table keyed by the symbol:
+	//no boxing and no per-entry node, an empty slot has a null target
+	private char[] symbs;
+	private DFAState[] targets;
+	private int size;
 	private boolean isFinal;//remembers its type
 	
 	/**
@@ -39,7 +41,41 @@ public class DFAState extends State{
 	
 	private void initDefault(String name ){
 		this.name = name;
-		delta = new HashMap<Character, DFAState>();
+		symbs = new char[4];
+		targets = new DFAState[4];
+		size = 0;
+	}
+
+	/**
+	 * Finds the slot of a symbol by linear probing
+	 * @param symb the alphabet symbol
+	 * @return the slot holding symb, or the empty slot where it belongs
+	 */
+	private int slotOf(char symb){
+		int mask = symbs.length - 1;
+		int h = symb * 0x9E3779B1;
+		int i = (h ^ (h >>> 16)) & mask;
+		while(targets[i] != null && symbs[i] != symb){
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Doubles the table, keeping it at most half full
+	 */
+	private void grow(){
+		char[] oldSymbs = symbs;
+		DFAState[] oldTargets = targets;
+		symbs = new char[oldSymbs.length * 2];
+		targets = new DFAState[oldTargets.length * 2];
+		for(int i = 0; i < oldSymbs.length; i++){
+			if(oldTargets[i] != null){
+				int j = slotOf(oldSymbs[i]);
+				symbs[j] = oldSymbs[i];
+				targets[j] = oldTargets[i];
+			}
+		}
 	}
 	
 	/**
@@ -57,7 +93,16 @@ public class DFAState extends State{
 	 * @param toState to DFA state
 	 */
 	public void addTransition(char onSymb, DFAState toState){
-		delta.put(onSymb, toState);
+		int i = slotOf(onSymb);
+		if(targets[i] == null){
+			if(2 * (size + 1) > symbs.length){
+				grow();
+				i = slotOf(onSymb);
+			}
+			size++;
+		}
+		symbs[i] = onSymb;
+		targets[i] = toState;
 	}
 	
 	/**
@@ -67,13 +112,23 @@ public class DFAState extends State{
 	 * @return the new state 
 	 */
 	public DFAState getTo(char symb){
-		DFAState ret = delta.get(symb);
+		DFAState ret = targets[slotOf(symb)];
 		if(ret == null){
 			 System.err.println("ERROR: DFAState.getTo(char symb) returns null on " + symb + " from " + name);
 			 System.exit(2);
 			}
-		return delta.get(symb);
+		return ret;
 	}
-	
+
+	/**
+	 * Looks up the transition on the given symbol without
+	 * treating a missing entry as an error
+	 * @param symb - the alphabet symbol
+	 * @return the new state or null if there is no transition
+	 */
+	DFAState peekTo(char symb){
+		return targets[slotOf(symb)];
+	}
+
 	
 }
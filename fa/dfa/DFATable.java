@@ -0,0 +1,40 @@
+package fa.dfa;
+
+/**
+ * Storage for the states, alphabet and transition matrix of a
+ * CompiledDFA. States are numbered 0..getNumStates()-1 and symbols
+ * 0..getNumSymbols()-1. CompiledDFA does the matching, batching,
+ * search support and metrics on top of any implementation, so a
+ * table only has to answer lookups. Implementations are immutable
+ * and safe to share between threads.
+ */
+public interface DFATable {
+
+	public abstract int getNumStates();
+
+	public abstract int getNumSymbols();
+
+	public abstract int getStart();
+
+	/**
+	 * @param sym a symbol id
+	 * @return the character for that symbol
+	 */
+	public abstract char getSymbol(int sym);
+
+	/**
+	 * Transition on a symbol id
+	 * @param state the source state id
+	 * @param sym the symbol id, never CompiledDFA.NONE
+	 * @return the target state id or CompiledDFA.NONE
+	 */
+	public abstract int next(int state, int sym);
+
+	public abstract boolean isFinal(int state);
+
+	/**
+	 * @param state a state id
+	 * @return true if some final state is reachable from state
+	 */
+	public abstract boolean isLive(int state);
+}
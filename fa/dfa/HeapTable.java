@@ -0,0 +1,66 @@
+package fa.dfa;
+
+/**
+ * DFATable held in Java arrays, the transitions in one flat row
+ * major int array so a transition is a single load.
+ * ShortTable is the same with the transitions stored as shorts.
+ */
+final class HeapTable implements DFATable {
+
+	private final int start;
+	private final char[] symbols;
+	private final int[] delta;//numStates x numSymbols, row major
+	private final boolean[] finals;
+	private final boolean[] live;
+
+	/**
+	 * Wraps the arrays without copying them
+	 * @param start the start state id
+	 * @param symbols the alphabet, symbol i is symbols[i]
+	 * @param delta the transitions, NONE for none
+	 * @param finals final flags indexed by state id
+	 * @param live live flags indexed by state id
+	 */
+	HeapTable(int start, char[] symbols, int[] delta, boolean[] finals, boolean[] live){
+		this.start = start;
+		this.symbols = symbols;
+		this.delta = delta;
+		this.finals = finals;
+		this.live = live;
+	}
+
+	@Override
+	public int getNumStates(){
+		return finals.length;
+	}
+
+	@Override
+	public int getNumSymbols(){
+		return symbols.length;
+	}
+
+	@Override
+	public int getStart(){
+		return start;
+	}
+
+	@Override
+	public char getSymbol(int sym){
+		return symbols[sym];
+	}
+
+	@Override
+	public int next(int state, int sym){
+		return delta[state * symbols.length + sym];
+	}
+
+	@Override
+	public boolean isFinal(int state){
+		return finals[state];
+	}
+
+	@Override
+	public boolean isLive(int state){
+		return live[state];
+	}
+}
@@ -0,0 +1,345 @@
+package fa.dfa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * A DFATable whose transition matrix and state flags live outside
+ * the Java heap, in a direct or memory mapped ByteBuffer. Wrapped in
+ * a CompiledDFA it matches, batches and searches like a heap table,
+ * while the garbage collector has the same small amount of work
+ * whatever the number of states. A table written with save can be
+ * mapped read-only by any number of processes with map, which share
+ * the page cache instead of each holding a copy. of(DFA, boolean) writes
+ * a DFA straight into the buffer, so a large table never exists as a
+ * heap array. The table is limited to 2GB, the size of one ByteBuffer.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ * int magic, int numStates, int numSymbols, int start
+ * char[numSymbols] alphabet, padded to 8 bytes
+ * int[numStates * numSymbols] transitions, -1 for none
+ * long[(numStates + 63) / 64] final state bits
+ * long[(numStates + 63) / 64] live state bits
+ * </pre>
+ */
+public final class OffHeapTable implements DFATable {
+
+	private static final int MAGIC = 0x32414644;//"DFA2"
+	private static final int HEADER = 16;
+
+	private final ByteBuffer buf;
+	private final int numStates;
+	private final int numSymbols;
+	private final int start;
+	private final char[] symbols;
+	private final int deltaOffset;
+	private final int finalsOffset;
+	private final int liveOffset;
+
+	private OffHeapTable(ByteBuffer buf){
+		this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+		if(buf.capacity() < HEADER || buf.getInt(0) != MAGIC){
+			throw new IllegalArgumentException("not an off-heap DFA table");
+		}
+		numStates = buf.getInt(4);
+		numSymbols = buf.getInt(8);
+		start = buf.getInt(12);
+		if(numStates < 1 || numSymbols < 0 || numSymbols > Character.MAX_VALUE + 1
+				|| start < 0 || start >= numStates){
+			throw new IllegalArgumentException("corrupt off-heap DFA table header: " + numStates
+				+ " states, " + numSymbols + " symbols, start " + start);
+		}
+		if(buf.capacity() < size(numStates, numSymbols)){
+			throw new IllegalArgumentException("truncated off-heap DFA table");
+		}
+		symbols = new char[numSymbols];
+		for(int i = 0; i < numSymbols; i++){
+			symbols[i] = buf.getChar(HEADER + 2 * i);
+		}
+		deltaOffset = align(HEADER + 2 * numSymbols);
+		finalsOffset = align(deltaOffset + 4 * numStates * numSymbols);
+		liveOffset = finalsOffset + 8 * ((numStates + 63) / 64);
+	}
+
+	private static int align(int offset){
+		return (offset + 7) & ~7;
+	}
+
+	/**
+	 * @return the number of bytes needed for a table of this shape
+	 * @throws IllegalArgumentException if it does not fit in a ByteBuffer
+	 */
+	private static int size(int numStates, int numSymbols){
+		long delta = align(HEADER + 2 * numSymbols);
+		long bytes = delta + 4L * numStates * numSymbols;
+		bytes = ((bytes + 7) & ~7L) + 16L * ((numStates + 63) / 64);
+		if(bytes > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("DFA table of " + bytes + " bytes does not fit in one buffer");
+		}
+		return (int) bytes;
+	}
+
+	/**
+	 * @return a direct buffer with the header and alphabet written
+	 */
+	private static ByteBuffer allocate(int n, int k, int start, char[] symbols){
+		ByteBuffer buf = ByteBuffer.allocateDirect(size(n, k)).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(0, MAGIC);
+		buf.putInt(4, n);
+		buf.putInt(8, k);
+		buf.putInt(12, start);
+		for(int i = 0; i < k; i++){
+			buf.putChar(HEADER + 2 * i, symbols[i]);
+		}
+		return buf;
+	}
+
+	/**
+	 * Builds the table of a DFA directly in a new direct buffer, with
+	 * the same state and symbol numbering as new CompiledDFA(dfa, partial).
+	 * Besides the buffer only a map from states to ids and some
+	 * temporary direct buffers for the live state pass are allocated.
+	 * @param dfa the DFA to compile, it must have a start state
+	 * @param partial true to drop transitions into dead states
+	 * @return the off-heap table
+	 */
+	public static OffHeapTable of(DFA dfa, boolean partial){
+		Set<DFAState> states = dfa.getStates();
+		int n = states.size();
+		char[] abc = new char[dfa.getABC().size()];
+		int k = 0;
+		for(char c : dfa.getABC()){
+			abc[k++] = c;
+		}
+		HashMap<DFAState, Integer> ids = new HashMap<DFAState, Integer>();
+		for(DFAState s : states){
+			ids.put(s, ids.size());
+		}
+		OffHeapTable ret = new OffHeapTable(allocate(n, k, ids.get(dfa.getStartState()), abc));
+		for(DFAState s : states){
+			int q = ids.get(s);
+			for(int i = 0; i < k; i++){
+				DFAState to = s.peekTo(abc[i]);
+				ret.putNext(q, i, to == null ? CompiledDFA.NONE : ids.get(to));
+			}
+			if(s.isFinal()){
+				ret.setBit(ret.finalsOffset, q);
+			}
+		}
+		ret.markLive();
+		if(partial){
+			for(int q = 0; q < n; q++){
+				for(int i = 0; i < k; i++){
+					int to = ret.next(q, i);
+					if(to != CompiledDFA.NONE && !ret.isLive(to)){
+						ret.putNext(q, i, CompiledDFA.NONE);
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Copies a table into a new direct buffer
+	 * @param table the table to copy
+	 * @return the off-heap copy
+	 */
+	public static OffHeapTable of(DFATable table){
+		int n = table.getNumStates();
+		int k = table.getNumSymbols();
+		char[] abc = new char[k];
+		for(int i = 0; i < k; i++){
+			abc[i] = table.getSymbol(i);
+		}
+		ByteBuffer buf = allocate(n, k, table.getStart(), abc);
+		int off = align(HEADER + 2 * k);
+		for(int q = 0; q < n; q++){
+			for(int i = 0; i < k; i++){
+				buf.putInt(off, table.next(q, i));
+				off += 4;
+			}
+		}
+		off = align(off);
+		for(int pass = 0; pass < 2; pass++){
+			for(int q = 0; q < n; q += 64){
+				long word = 0;
+				for(int b = 0; b < 64 && q + b < n; b++){
+					if(pass == 0 ? table.isFinal(q + b) : table.isLive(q + b)){
+						word |= 1L << b;
+					}
+				}
+				buf.putLong(off, word);
+				off += 8;
+			}
+		}
+		return new OffHeapTable(buf);
+	}
+
+	/**
+	 * Maps a table written by save, read-only
+	 * @param file the table file
+	 * @return the mapped table
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalArgumentException if the file is not a valid table
+	 */
+	public static OffHeapTable map(Path file) throws IOException {
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+			if(ch.size() > Integer.MAX_VALUE){
+				throw new IOException(file + " is too large for a DFA table");
+			}
+			OffHeapTable ret = new OffHeapTable(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+			ret.checkTransitions();
+			return ret;
+		}
+	}
+
+	/**
+	 * Reads every transition once so a corrupt file fails here
+	 * rather than at a wrong bit or index during matching
+	 * @throws IllegalArgumentException if a target is out of range
+	 */
+	private void checkTransitions(){
+		IntBuffer delta = buf.slice(deltaOffset, 4 * numStates * numSymbols)
+			.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		for(int i = 0; delta.hasRemaining(); i++){
+			int t = delta.get();
+			if(t < CompiledDFA.NONE || t >= numStates){
+				throw new IllegalArgumentException("corrupt off-heap DFA table: state " + i / Math.max(numSymbols, 1)
+					+ " has a transition to " + t + " of " + numStates + " states");
+			}
+		}
+	}
+
+	/**
+	 * Sets the live bits by walking the transitions backwards from the
+	 * final states. The reverse edges go in temporary direct buffers, so
+	 * the pass does not put a table sized array on the heap either.
+	 */
+	private void markLive(){
+		int n = numStates;
+		//offsets[t]..offsets[t + 1] index the predecessors of t
+		IntBuffer offsets = ints(n + 1);
+		for(int p = 0; p < n; p++){
+			for(int i = 0; i < numSymbols; i++){
+				int t = next(p, i);
+				if(t != CompiledDFA.NONE){
+					offsets.put(t + 1, offsets.get(t + 1) + 1);
+				}
+			}
+		}
+		for(int t = 0; t < n; t++){
+			offsets.put(t + 1, offsets.get(t + 1) + offsets.get(t));
+		}
+		IntBuffer preds = ints(offsets.get(n));
+		IntBuffer fill = ints(n);
+		for(int t = 0; t < n; t++){
+			fill.put(t, offsets.get(t));
+		}
+		for(int p = 0; p < n; p++){
+			for(int i = 0; i < numSymbols; i++){
+				int t = next(p, i);
+				if(t != CompiledDFA.NONE){
+					int at = fill.get(t);
+					preds.put(at, p);
+					fill.put(t, at + 1);
+				}
+			}
+		}
+		IntBuffer stack = fill;//no longer needed, reused
+		int top = 0;
+		for(int q = 0; q < n; q++){
+			if(isFinal(q)){
+				setBit(liveOffset, q);
+				stack.put(top++, q);
+			}
+		}
+		while(top > 0){
+			int q = stack.get(--top);
+			for(int i = offsets.get(q), end = offsets.get(q + 1); i < end; i++){
+				int p = preds.get(i);
+				if(!isLive(p)){
+					setBit(liveOffset, p);
+					stack.put(top++, p);
+				}
+			}
+		}
+	}
+
+	private static IntBuffer ints(int count){
+		return ByteBuffer.allocateDirect(4 * Math.max(count, 1)).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private void putNext(int state, int sym, int to){
+		buf.putInt(deltaOffset + 4 * (state * numSymbols + sym), to);
+	}
+
+	private void setBit(int offset, int state){
+		int at = offset + 8 * (state >>> 6);
+		buf.putLong(at, buf.getLong(at) | (1L << state));
+	}
+
+	/**
+	 * Writes the table to a file that map can read
+	 * @param file the file to create or replace
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Path file) throws IOException {
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			ByteBuffer view = buf.duplicate();
+			view.clear();
+			while(view.hasRemaining()){
+				ch.write(view);
+			}
+		}
+	}
+
+	@Override
+	public int getNumStates(){
+		return numStates;
+	}
+
+	@Override
+	public int getNumSymbols(){
+		return numSymbols;
+	}
+
+	@Override
+	public int getStart(){
+		return start;
+	}
+
+	@Override
+	public char getSymbol(int sym){
+		return symbols[sym];
+	}
+
+	@Override
+	public int next(int state, int sym){
+		return buf.getInt(deltaOffset + 4 * (state * numSymbols + sym));
+	}
+
+	@Override
+	public boolean isFinal(int state){
+		return bit(finalsOffset, state);
+	}
+
+	@Override
+	public boolean isLive(int state){
+		return bit(liveOffset, state);
+	}
+
+	private boolean bit(int offset, int state){
+		long word = buf.getLong(offset + 8 * (state >>> 6));
+		return (word & (1L << state)) != 0;
+	}
+}
@@ -0,0 +1,68 @@
+package fa.dfa;
+
+/**
+ * HeapTable with the transitions stored as shorts, which halves the
+ * matrix. It can only hold tables whose state ids fit in a short.
+ */
+final class ShortTable implements DFATable {
+
+	/** the most states a ShortTable can hold */
+	static final int MAX_STATES = Short.MAX_VALUE;
+
+	private final int start;
+	private final char[] symbols;
+	private final short[] delta;//numStates x numSymbols, row major
+	private final boolean[] finals;
+	private final boolean[] live;
+
+	/**
+	 * Wraps the arrays without copying them
+	 * @param start the start state id
+	 * @param symbols the alphabet, symbol i is symbols[i]
+	 * @param delta the transitions, NONE for none
+	 * @param finals final flags indexed by state id
+	 * @param live live flags indexed by state id
+	 */
+	ShortTable(int start, char[] symbols, short[] delta, boolean[] finals, boolean[] live){
+		this.start = start;
+		this.symbols = symbols;
+		this.delta = delta;
+		this.finals = finals;
+		this.live = live;
+	}
+
+	@Override
+	public int getNumStates(){
+		return finals.length;
+	}
+
+	@Override
+	public int getNumSymbols(){
+		return symbols.length;
+	}
+
+	@Override
+	public int getStart(){
+		return start;
+	}
+
+	@Override
+	public char getSymbol(int sym){
+		return symbols[sym];
+	}
+
+	@Override
+	public int next(int state, int sym){
+		return delta[state * symbols.length + sym];
+	}
+
+	@Override
+	public boolean isFinal(int state){
+		return finals[state];
+	}
+
+	@Override
+	public boolean isLive(int state){
+		return live[state];
+	}
+}
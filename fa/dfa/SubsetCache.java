@@ -0,0 +1,128 @@
+package fa.dfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A DFA over sets of CompiledDFA states that is built on demand:
+ * each (subset, symbol) transition is computed the first time it is
+ * taken and memoized in a flat table. The cache keeps a running
+ * estimate of the bytes its subsets, map entries and table rows hold;
+ * when that reaches the limit the whole cache is dropped and rebuilt
+ * from the current subset, so memory stays under the limit on any
+ * input whatever the number of states. A subset costs a word per 64
+ * states up to its highest member, so large subsets of large tables
+ * mean fewer cached subsets and more flushes.
+ */
+abstract class SubsetCache {
+
+	private static final int UNKNOWN = -2;
+	//BitSet and word array headers, map node and list slot of one subset
+	private static final int SUBSET_OVERHEAD = 96;
+
+	private final int width;//symbols plus one column for "not in alphabet"
+	private final long maxBytes;
+	private final ArrayList<BitSet> sets;
+	private final HashMap<BitSet, Integer> ids;
+	private final BitSet matching;
+	private int[] table;
+	private long bytes;//estimated footprint of the cached subsets
+
+	/**
+	 * @param numSymbols the alphabet size of the underlying table
+	 * @param maxBytes the estimated footprint at which the cache is flushed
+	 */
+	SubsetCache(int numSymbols, long maxBytes){
+		this.width = numSymbols + 1;
+		this.maxBytes = maxBytes;
+		sets = new ArrayList<BitSet>();
+		ids = new HashMap<BitSet, Integer>();
+		matching = new BitSet();
+		table = new int[16 * width];
+	}
+
+	/**
+	 * Computes the subset reached from a subset on a symbol
+	 * @param from the source subset, must not be modified
+	 * @param sym the symbol id or CompiledDFA.NONE
+	 * @return a new subset
+	 */
+	protected abstract BitSet step(BitSet from, int sym);
+
+	/**
+	 * @param set a subset
+	 * @return true if the subset should be reported as a match
+	 */
+	protected abstract boolean matches(BitSet set);
+
+	/**
+	 * Returns the id of the given subset, adding it to the cache if needed
+	 * @param set the subset, it must not be modified afterwards
+	 * @return the id of set
+	 */
+	int intern(BitSet set){
+		Integer id = ids.get(set);
+		if(id != null){
+			return id;
+		}
+		//drop the slack left by growing, a copy of a non-presized set is trimmed
+		set = (BitSet) set.clone();
+		bytes += set.size() / 8 + SUBSET_OVERHEAD + 4L * width;
+		int ret = sets.size();
+		sets.add(set);
+		ids.put(set, ret);
+		if(matches(set)){
+			matching.set(ret);
+		}
+		if((ret + 1) * width > table.length){
+			int[] grown = new int[table.length * 2];
+			System.arraycopy(table, 0, grown, 0, table.length);
+			table = grown;
+		}
+		Arrays.fill(table, ret * width, (ret + 1) * width, UNKNOWN);
+		return ret;
+	}
+
+	/**
+	 * Cached transition. The returned id is only valid until the
+	 * next call that misses the cache.
+	 * @param id the source subset id
+	 * @param sym the symbol id or CompiledDFA.NONE
+	 * @return the target subset id
+	 */
+	int next(int id, int sym){
+		int col = sym == CompiledDFA.NONE ? width - 1 : sym;
+		int ret = table[id * width + col];
+		if(ret != UNKNOWN){
+			return ret;
+		}
+		BitSet to = step(sets.get(id), sym);
+		if(bytes >= maxBytes && !ids.containsKey(to)){
+			clear();
+			return intern(to);
+		}
+		ret = intern(to);
+		table[id * width + col] = ret;
+		return ret;
+	}
+
+	boolean isMatch(int id){
+		return matching.get(id);
+	}
+
+	boolean isEmpty(int id){
+		return sets.get(id).isEmpty();
+	}
+
+	/**
+	 * Drops every cached subset and transition
+	 */
+	void clear(){
+		sets.clear();
+		ids.clear();
+		matching.clear();
+		bytes = 0;
+	}
+}
@@ -0,0 +1,77 @@
+package fa.dfa;
+
+import java.util.Arrays;
+
+/**
+ * Maps alphabet characters to symbol ids 0..k-1 and back.
+ * ASCII characters are found with one array lookup, others
+ * with a binary search over the sorted wide characters.
+ */
+class SymbolMap {
+
+	private final char[] symbols;//symbol id -> char
+	private final int[] asciiSymbols;//char < 128 -> symbol id
+	private final char[] wideChars;//sorted chars >= 128
+	private final int[] wideSymbols;//symbol ids parallel to wideChars
+
+	/**
+	 * @param symbols the alphabet, symbol i is symbols[i]
+	 */
+	SymbolMap(char[] symbols){
+		this.symbols = symbols.clone();
+		asciiSymbols = new int[128];
+		Arrays.fill(asciiSymbols, CompiledDFA.NONE);
+		int wide = 0;
+		for(int i = 0; i < symbols.length; i++){
+			if(symbols[i] < 128){
+				asciiSymbols[symbols[i]] = i;
+			} else {
+				wide++;
+			}
+		}
+		wideChars = new char[wide];
+		wideSymbols = new int[wide];
+		char[] sorted = symbols.clone();
+		Arrays.sort(sorted);
+		wide = 0;
+		for(char c : sorted){
+			if(c >= 128){
+				wideChars[wide] = c;
+				wideSymbols[wide++] = indexOf(symbols, c);
+			}
+		}
+	}
+
+	private static int indexOf(char[] arr, char c){
+		for(int i = 0; i < arr.length; i++){
+			if(arr[i] == c){
+				return i;
+			}
+		}
+		return CompiledDFA.NONE;
+	}
+
+	/**
+	 * @param c the input character
+	 * @return the symbol id or CompiledDFA.NONE if c is not in the alphabet
+	 */
+	int symbolOf(char c){
+		if(c < 128){
+			return asciiSymbols[c];
+		}
+		int i = Arrays.binarySearch(wideChars, c);
+		return i < 0 ? CompiledDFA.NONE : wideSymbols[i];
+	}
+
+	/**
+	 * @param sym a symbol id
+	 * @return the character for that symbol
+	 */
+	char getSymbol(int sym){
+		return symbols[sym];
+	}
+
+	int size(){
+		return symbols.length;
+	}
+}
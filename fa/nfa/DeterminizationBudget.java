@@ -0,0 +1,123 @@
+package fa.nfa;
+
+/**
+ * Limits for NFA.getDFA(DeterminizationBudget). Budgets are immutable:
+ * start from UNLIMITED and derive new ones with the with methods, e.g.
+ * UNLIMITED.withMaxStates(100_000).withMaxMillis(500).
+ * The state limit counts every subset discovered so
+ * far, including the ones still waiting to be expanded, so a blowup is
+ * caught as soon as the frontier grows rather than after it is explored.
+ * The memory limit is checked against an estimate of the bytes held by
+ * the subset names and transition entries of the conversion.
+ */
+public final class DeterminizationBudget {
+    /**
+     * A budget with no limits
+     */
+    public static final DeterminizationBudget UNLIMITED =
+            new DeterminizationBudget(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, false);
+
+    private final int maxStates;
+    private final long maxBytes;
+    private final long maxNanos;
+    private final boolean partial;
+
+    private DeterminizationBudget(int maxStates, long maxBytes, long maxNanos, boolean partial) {
+        this.maxStates = maxStates;
+        this.maxBytes = maxBytes;
+        this.maxNanos = maxNanos;
+        this.partial = partial;
+    }
+
+    /**
+     * Limits the number of DFA states the conversion may discover.
+     *
+     * @param maxStates the limit, at least 1
+     * @return a copy of this budget with the new limit
+     */
+    public DeterminizationBudget withMaxStates(int maxStates) {
+        if (maxStates < 1)
+            throw new IllegalArgumentException("invalid state limit " + maxStates);
+        return new DeterminizationBudget(maxStates, maxBytes, maxNanos, partial);
+    }
+
+    /**
+     * Limits the estimated footprint of the conversion.
+     *
+     * @param maxBytes the limit in bytes
+     * @return a copy of this budget with the new limit
+     */
+    public DeterminizationBudget withMaxBytes(long maxBytes) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("invalid memory limit " + maxBytes);
+        return new DeterminizationBudget(maxStates, maxBytes, maxNanos, partial);
+    }
+
+    /**
+     * Limits the time the conversion may run.
+     *
+     * @param maxMillis the limit in milliseconds
+     * @return a copy of this budget with the new limit
+     */
+    public DeterminizationBudget withMaxMillis(long maxMillis) {
+        if (maxMillis < 1 || maxMillis > Long.MAX_VALUE / 1_000_000L)
+            throw new IllegalArgumentException("invalid time limit " + maxMillis);
+        return new DeterminizationBudget(maxStates, maxBytes, maxMillis * 1_000_000L, partial);
+    }
+
+    /**
+     * Chooses what happens when a limit is hit. By default the conversion
+     * throws a DeterminizationException. In partial mode it stops expanding
+     * and returns the DFA explored so far, in which every subset that was
+     * not expanded moves to the [] trap state on every symbol. That DFA
+     * accepts a subset of the language: it is exact for strings whose run
+     * only passes through expanded states, and rejects everything else.
+     *
+     * @param partial true to return a partial DFA instead of failing
+     * @return a copy of this budget with the new mode
+     */
+    public DeterminizationBudget withPartial(boolean partial) {
+        return new DeterminizationBudget(maxStates, maxBytes, maxNanos, partial);
+    }
+
+    public int getMaxStates() {
+        return maxStates;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxMillis() {
+        return maxNanos == Long.MAX_VALUE ? Long.MAX_VALUE : maxNanos / 1_000_000L;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return true if any limit is set
+     */
+    boolean isLimited() {
+        return maxStates != Integer.MAX_VALUE || maxBytes != Long.MAX_VALUE || maxNanos != Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks the current progress against the limits.
+     *
+     * @param states DFA states discovered so far
+     * @param bytes  estimated bytes held so far
+     * @param nanos  time spent so far
+     * @return the name of the first limit exceeded, or null if none is
+     */
+    String exceeded(int states, long bytes, long nanos) {
+        if (states > maxStates)
+            return "states";
+        if (bytes > maxBytes)
+            return "memory";
+        if (nanos > maxNanos)
+            return "time";
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+package fa.nfa;
+
+/**
+ * Thrown by NFA.getDFA(DeterminizationBudget) when the subset
+ * construction exceeds its budget. It carries the progress made
+ * so far so callers can log why the NFA was rejected.
+ */
+public class DeterminizationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String limit;
+    private final int statesExpanded;
+    private final int statesPending;
+    private final long estimatedBytes;
+    private final long elapsedMillis;
+
+    /**
+     * @param limit          the name of the limit that was exceeded
+     * @param statesExpanded DFA states whose transitions were computed
+     * @param statesPending  DFA states discovered but not yet expanded
+     * @param estimatedBytes estimated footprint of the conversion
+     * @param elapsedMillis  time spent in the conversion
+     */
+    public DeterminizationException(String limit, int statesExpanded, int statesPending,
+                                    long estimatedBytes, long elapsedMillis) {
+        super("NFA to DFA conversion exceeded its " + limit + " limit after expanding "
+                + statesExpanded + " states (" + statesPending + " pending, ~"
+                + estimatedBytes + " bytes, " + elapsedMillis + " ms)");
+        this.limit = limit;
+        this.statesExpanded = statesExpanded;
+        this.statesPending = statesPending;
+        this.estimatedBytes = estimatedBytes;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return "states", "memory" or "time"
+     */
+    public String getLimit() {
+        return limit;
+    }
+
+    public int getStatesExpanded() {
+        return statesExpanded;
+    }
+
+    public int getStatesPending() {
+        return statesPending;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
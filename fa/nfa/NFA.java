@@ -1,5 +1,6 @@
 package fa.nfa;
 
+import fa.Metrics;
 import fa.State;
 import fa.dfa.DFA;
 
@@ -9,22 +10,41 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class NFA implements NFAInterface {
     // start state
     private NFAState startState;
-    // HashMap to store transitions
-    private final HashMap<String, String> transitions;
+    // HashMap to store transitions, keyed by the source state name followed by the symbol
+    private final HashMap<String, List<String>> transitions;
     // LinkedHashSet to store states
     private final LinkedHashSet<NFAState> states;
+    // index of states by name, the first state added under a name wins
+    private final HashMap<String, NFAState> stateIndex;
+    // while every state name is one character, DFA state names are the characters run together
+    private boolean singleCharNames = true;
     // contains the alphabet in the language
     private final LinkedHashSet<Character> alphabet;
+    // receives conversion counts and timings
+    private Metrics metrics = Metrics.NONE;
+    // nanoseconds spent in eClosure since getDFA started, while metrics are enabled
+    private long closureNanos;
 
     /**
      * Constructor
      */
     public NFA() {
         states = new LinkedHashSet<>();
+        stateIndex = new HashMap<>();
         transitions = new HashMap<>();
         alphabet = new LinkedHashSet<>();
     }
 
+    /**
+     * Sets where getDFA reports its counts and timings. The DFA returned
+     * by getDFA reports its matching figures to the same place.
+     *
+     * @param metrics the sink, Metrics.NONE to turn reporting off
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Check if start state is also a final state. Then create start state.
      *
@@ -32,14 +52,13 @@ public class NFA implements NFAInterface {
      */
     @Override
     public void addStartState(String name) {
-        for (Object state : states.toArray()) {
-            if (((NFAState) state).getName().equals(name)) {
-                startState = (NFAState) state;
-                return;
-            }
+        NFAState existing = stateIndex.get(name);
+        if (existing != null) {
+            startState = existing;
+            return;
         }
         startState = new NFAState(name, false);
-        states.add(new NFAState(name, false));
+        addState(startState);
     }
 
     /**
@@ -49,7 +68,7 @@ public class NFA implements NFAInterface {
      */
     @Override
     public void addState(String name) {
-        states.add(new NFAState(name, false));
+        addState(new NFAState(name, false));
     }
 
     /**
@@ -59,7 +78,19 @@ public class NFA implements NFAInterface {
      */
     @Override
     public void addFinalState(String name) {
-        states.add(new NFAState(name, true));
+        addState(new NFAState(name, true));
+    }
+
+    /**
+     * Adds a state to the states set and the name index.
+     *
+     * @param state the new state
+     */
+    private void addState(NFAState state) {
+        states.add(state);
+        stateIndex.putIfAbsent(state.getName(), state);
+        if (state.getName().length() != 1)
+            singleCharNames = false;
     }
 
     /**
@@ -74,13 +105,8 @@ public class NFA implements NFAInterface {
         // if onSymb is not in alphabet, add it
         if (onSymb != 'e')
             alphabet.add(onSymb);
-        // check if start state and character have been used already
-        if (transitions.get(fromState + onSymb) == null) {
-            transitions.put(fromState + onSymb, toState);
-        } else {
-            // redo addition to hashmap and append new state to end of string
-            transitions.put(fromState + onSymb, transitions.get(fromState + onSymb) + " " + toState);
-        }
+        // append to the targets of this state and character, most have only one
+        transitions.computeIfAbsent(fromState + onSymb, k -> new ArrayList<>(1)).add(toState);
     }
 
     /**
@@ -134,6 +160,19 @@ public class NFA implements NFAInterface {
      */
     @Override
     public DFA getDFA() {
+        return getDFA(DeterminizationBudget.UNLIMITED);
+    }
+
+    /**
+     * Converts the NFA to a DFA within the given limits. When a limit is
+     * exceeded this either throws a DeterminizationException or, if the
+     * budget is partial, returns the part of the DFA explored so far.
+     *
+     * @param budget limits on states, memory and time
+     * @return equivalent DFA, or an under-approximation in partial mode
+     * @throws DeterminizationException if a limit is exceeded and the budget is not partial
+     */
+    public DFA getDFA(DeterminizationBudget budget) {
         // String storing start state to add to DFA later
         String dfaStartState = "";
         // set to store a list of states in the DFA
@@ -145,11 +184,38 @@ public class NFA implements NFAInterface {
         // add start state to begin
         stateQueue.add(startState.getName());
         boolean isStartState = true;
+        // only read the clock when someone is listening
+        boolean timed = metrics.isEnabled();
+        // closures are timed where they are computed, the rest of the loop is expansion
+        long loopTime = 0, t0 = 0;
+        closureNanos = 0;
+        // rough bytes held by subset names and transition entries, for the budget
+        boolean limited = budget.isLimited();
+        long estimatedBytes = 0;
+        long begin = limited ? System.nanoTime() : 0;
         while (!stateQueue.isEmpty()) {
+            // check the budget once the start state has been expanded
+            if (limited && !isStartState) {
+                long elapsed = System.nanoTime() - begin;
+                String exceeded = budget.exceeded(dfaStates.size() + 1 + stateQueue.size(), estimatedBytes, elapsed);
+                if (exceeded != null) {
+                    if (!budget.isPartial())
+                        throw new DeterminizationException(exceeded, dfaStates.size() + 1, stateQueue.size(),
+                                estimatedBytes, elapsed / 1_000_000L);
+                    // keep the frontier as states with no transitions of their own
+                    dfaStates.addAll(stateQueue);
+                    stateQueue.clear();
+                    break;
+                }
+            }
             // remove the next state from the queue
             String currentState = stateQueue.remove();
             // ENSURING CURRENT STATE IS ACCURATE AND FULL
             // get eclosure of currentState
+            if (timed) {
+                metrics.count(Metrics.SUBSETS, 1);
+                t0 = System.nanoTime();
+            }
             Set<NFAState> eClosure = eClosureOfStates(currentState);
             // reassign current state to output of nfaSetToAlphabetizedString
             currentState = nfaSetToAlphabetizedString(eClosure);
@@ -165,29 +231,45 @@ public class NFA implements NFAInterface {
             for (Object character : alphabet.toArray()) {
                 LinkedHashSet<NFAState> nextState = new LinkedHashSet<>();
                 // for each NFA state in currentState
-                for (int i = 0; i < currentState.length(); i++) {
+                for (String name : namesOf(currentState)) {
                     // use getToState to find all possible next states from the current NFA state on the given transition character
                     // if the next state(s) are not already in nextState, add them
-                    nextState.addAll(getToState(Objects.requireNonNull(getState(Character.toString(currentState.charAt(i)))), (char) character));
+                    nextState.addAll(getToState(Objects.requireNonNull(getState(name)), (char) character));
                 }
                 if (!nextState.isEmpty()) {
                     String nextDFAState = nfaSetToAlphabetizedString(nextState);
                     // if nextDFAState is not already in stateQueue, dfaStartState or dfaStates, add nextDFAState to stateQueue
-                    if (!nextDFAState.equals("") && !(stateQueue.contains(nextDFAState) | dfaStates.contains(nextDFAState) | dfaStartState.equals(nextDFAState)))
+                    if (!nextDFAState.equals("") && !(stateQueue.contains(nextDFAState) | dfaStates.contains(nextDFAState) | dfaStartState.equals(nextDFAState))) {
                         stateQueue.add(nextDFAState);
+                        // String header and chars plus a set entry
+                        estimatedBytes += 2L * nextDFAState.length() + 80;
+                    }
                     // add transition to dfaTransitions in form of {<currentState><transition character>, <nextDFAState> (i.e. {"ABC0", "BDE"})
                     dfaTransitions.put(currentState + Character.toString((char) character), nextDFAState);
+                    // key String plus a map node, the value String is shared
+                    estimatedBytes += 2L * (currentState.length() + 1) + 88;
                 }
             }
+            if (timed)
+                loopTime += System.nanoTime() - t0;
+        }
+        if (timed) {
+            metrics.time(Metrics.CLOSURE_TIME, closureNanos);
+            metrics.time(Metrics.EXPANSION_TIME, loopTime - closureNanos);
+            t0 = System.nanoTime();
         }
         // once stateQueue is empty, add all states and transitions to the DFA
         DFA dfa = new DFA();
+        dfa.setMetrics(metrics);
         for (Object state : dfaStates.toArray())
             if (containsFinalState((String) state))
                 dfa.addFinalState("[" + (String) state + "]");
             else
                 dfa.addState("[" + (String) state + "]");
-        dfa.addStartState("[" + dfaStartState + "]");
+        if (containsFinalState(dfaStartState))
+            dfa.addFinalStartState("[" + dfaStartState + "]");
+        else
+            dfa.addStartState("[" + dfaStartState + "]");
         // add transitions for each state/transition combo
         dfaStates.add(dfaStartState);
         AtomicBoolean containsNull = new AtomicBoolean(false);
@@ -208,9 +290,86 @@ public class NFA implements NFAInterface {
                 }
             });
         });
+        if (timed) {
+            metrics.time(Metrics.ASSEMBLY_TIME, System.nanoTime() - t0);
+            int assembled = dfaStates.size() + (containsNull.get() ? 1 : 0);
+            metrics.count(Metrics.TRANSITIONS, (long) assembled * alphabet.size());
+            if (containsNull.get())
+                metrics.count(Metrics.DEAD_STATES, 1);
+        }
         return dfa;
     }
 
+    /**
+     * Builds a copy of this NFA that keeps only the states that are
+     * reachable from the start state and from which a final state is
+     * reachable, counting empty transitions. The start state is always kept
+     * and the alphabet is unchanged. Converting the trimmed NFA never creates
+     * DFA states whose subsets cannot reach a final state, other than [].
+     *
+     * @return the trimmed NFA
+     */
+    public NFA trim() {
+        // forward and backward edges by name, ignoring the symbol
+        HashMap<String, List<String>> next = new HashMap<>();
+        HashMap<String, List<String>> prev = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : transitions.entrySet()) {
+            String from = entry.getKey().substring(0, entry.getKey().length() - 1);
+            for (String to : entry.getValue()) {
+                next.computeIfAbsent(from, k -> new ArrayList<>()).add(to);
+                prev.computeIfAbsent(to, k -> new ArrayList<>()).add(from);
+            }
+        }
+        Set<String> reached = closure(Collections.singleton(startState.getName()), next);
+        Set<String> finals = new HashSet<>();
+        for (State state : getFinalStates())
+            if (reached.contains(state.getName()))
+                finals.add(state.getName());
+        Set<String> useful = closure(finals, prev);
+        useful.retainAll(reached);
+        useful.add(startState.getName());
+
+        NFA trimmed = new NFA();
+        trimmed.metrics = metrics;
+        trimmed.alphabet.addAll(alphabet);
+        // same order as the driver: final states, the start state, then the rest
+        for (NFAState state : states)
+            if (state.isFinalState() && useful.contains(state.getName()))
+                trimmed.addFinalState(state.getName());
+        trimmed.addStartState(startState.getName());
+        for (NFAState state : states)
+            if (!state.isFinalState() && state != startState && useful.contains(state.getName()))
+                trimmed.addState(state.getName());
+        for (Map.Entry<String, List<String>> entry : transitions.entrySet()) {
+            String key = entry.getKey();
+            String from = key.substring(0, key.length() - 1);
+            if (!useful.contains(from))
+                continue;
+            for (String to : entry.getValue()) {
+                if (useful.contains(to))
+                    trimmed.addTransition(from, key.charAt(key.length() - 1), to);
+            }
+        }
+        return trimmed;
+    }
+
+    /**
+     * Returns every name reachable from the given names along the given edges.
+     *
+     * @param from  - names to start from
+     * @param edges - adjacency lists by name
+     * @return - set of reachable names, including from
+     */
+    private static Set<String> closure(Set<String> from, Map<String, List<String>> edges) {
+        Set<String> output = new HashSet<>(from);
+        Deque<String> work = new ArrayDeque<>(from);
+        while (!work.isEmpty())
+            for (String to : edges.getOrDefault(work.remove(), Collections.emptyList()))
+                if (output.add(to))
+                    work.add(to);
+        return output;
+    }
+
     /**
      * Method to check if a given DFA state contains an NFA final state.
      *
@@ -218,20 +377,47 @@ public class NFA implements NFAInterface {
      * @return - True if state contains a final state, false otherwise
      */
     private boolean containsFinalState(String state) {
-        for (int i = 0; i < state.length(); i++) {
-            if (state.charAt(i) != ' ' && Objects.requireNonNull(getState(Character.toString(state.charAt(i)))).isFinalState())
+        for (String name : namesOf(state)) {
+            if (Objects.requireNonNull(getState(name)).isFinalState())
                 return true;
         }
         return false;
     }
 
     /**
-     * Given a set of NFA states, returns the names of each state in a string in alphabetical order
+     * Splits a DFA state name built by nfaSetToAlphabetizedString back into NFA state names.
+     *
+     * @param state - DFA state name
+     * @return - names of the NFA states in it
+     */
+    private List<String> namesOf(String state) {
+        List<String> names = new ArrayList<>();
+        if (singleCharNames) {
+            for (int i = 0; i < state.length(); i++)
+                if (state.charAt(i) != ' ')
+                    names.add(Character.toString(state.charAt(i)));
+        } else if (!state.isEmpty()) {
+            names.addAll(Arrays.asList(state.split(",")));
+        }
+        return names;
+    }
+
+    /**
+     * Given a set of NFA states, returns the names of each state in a string in alphabetical order.
+     * Once any state name is longer than one character the names are separated by commas.
      *
      * @param states - Set of states to be alphabetized and converted to a string
      * @return - String of states in alphabetical order
      */
     private String nfaSetToAlphabetizedString(Set<NFAState> states) {
+        if (!singleCharNames) {
+            String[] names = new String[states.size()];
+            int i = 0;
+            for (NFAState state : states)
+                names[i++] = state.getName();
+            Arrays.sort(names);
+            return String.join(",", names);
+        }
         StringBuilder output = new StringBuilder();
         for (NFAState state : states) {
             if (output.length() == 0) {
@@ -260,10 +446,7 @@ public class NFA implements NFAInterface {
     private NFAState getState(String target) {
         if (target.equals(startState.getName()))
             return startState;
-        for (Object nfaState : states.toArray())
-            if (((NFAState) nfaState).getName().equals(target))
-                return (NFAState) nfaState;
-        return null;
+        return stateIndex.get(target);
     }
 
     /**
@@ -277,15 +460,15 @@ public class NFA implements NFAInterface {
     public Set<NFAState> getToState(NFAState from, char onSymb) {
         // initialize hashset to return possible transition states
         LinkedHashSet<NFAState> possibleStates = new LinkedHashSet<>();
-        // get next transition(s) and create tokenizer to iterate through next state(s)
-        String next = transitions.get(from.getName() + onSymb);
+        // get next transition(s)
+        List<String> next = transitions.get(from.getName() + onSymb);
         // if there are no transitions for the given symbol, return an empty set
         if (next == null) {
             return possibleStates;
         }
         // iterate through all possible next states and find their respective NFAState object
-        for (StringTokenizer tk = new StringTokenizer(next, " "); tk.hasMoreTokens(); ) {
-            possibleStates.add(getState(tk.nextToken()));
+        for (String name : next) {
+            possibleStates.add(getState(name));
         }
         // if being called by eClosure method, end early
         if (onSymb == 'e')
@@ -307,18 +490,16 @@ public class NFA implements NFAInterface {
      */
     private Set<NFAState> eClosureOfStates(String states) {
         LinkedHashSet<NFAState> output = new LinkedHashSet<>();
-        // for each state in states, if the character is not a space
-        for (int i = 0; i < states.length(); i++) {
-            if (states.charAt(i) != ' ') {
-                // get the NFAState of the current state
-                NFAState currentState = getState(Character.toString(states.charAt(i)));
-                // if we have not alreaedy visited the current state
-                if (!output.contains(currentState)) {
-                    // get its eclosure and add all states to output
-                    Set<NFAState> eClosureOfCurrentState = eClosure(currentState);
-                    for (Object state : eClosureOfCurrentState.toArray())
-                        output.add((NFAState) state);
-                }
+        // for each state in states
+        for (String name : namesOf(states)) {
+            // get the NFAState of the current state
+            NFAState currentState = getState(name);
+            // if we have not alreaedy visited the current state
+            if (!output.contains(currentState)) {
+                // get its eclosure and add all states to output
+                Set<NFAState> eClosureOfCurrentState = eClosure(currentState);
+                for (Object state : eClosureOfCurrentState.toArray())
+                    output.add((NFAState) state);
             }
         }
         return output;
@@ -332,6 +513,22 @@ public class NFA implements NFAInterface {
      */
     @Override
     public Set<NFAState> eClosure(NFAState s) {
+        if (!metrics.isEnabled())
+            return computeEClosure(s);
+        metrics.count(Metrics.CLOSURES, 1);
+        long t0 = System.nanoTime();
+        Set<NFAState> output = computeEClosure(s);
+        closureNanos += System.nanoTime() - t0;
+        return output;
+    }
+
+    /**
+     * Computes the eClosure of a state, see eClosure.
+     *
+     * @param s state to start at
+     * @return set of states which can be reached from s on empty transitions
+     */
+    private Set<NFAState> computeEClosure(NFAState s) {
         // get all next states which can be reaches on an empty transition
         Set<NFAState> nextStates = getToState(s, 'e');
         // for each next possible state, see if there are further states which can be reached
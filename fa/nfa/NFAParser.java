@@ -0,0 +1,377 @@
+package fa.nfa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads an NFA file through a channel with a hand-written tokenizer.
+ * Two formats are accepted.
+ * <p>
+ * The classic format, as read by NFADriver: the final states, the start
+ * state and the other states on the first three lines, then all transitions
+ * on the fourth line as "XsY" tokens, then one input string per line.
+ * <p>
+ * The extended format starts with a line holding only %extended, then has
+ * one entry per line, in any order:
+ * <pre>
+ * # a comment
+ * final q2 q3
+ * start q0
+ * states q1
+ * q0 a q1
+ * q1 \e q2
+ * %inputs
+ * aab
+ * </pre>
+ * State names are any run of non-blank characters other than a comma,
+ * and cannot be final, start, states or begin with #.
+ * A symbol is one character or an escape: \e for epsilon, \s for space,
+ * \t for tab, \\ for a backslash, \# for #, or a backslash followed by u and
+ * four hex digits for any other character.
+ * NFA reserves the character e for epsilon, so a literal e cannot be a
+ * symbol in either format. The extended format therefore rejects a bare e
+ * and the u escape of e rather than read them as epsilon: \e is the only
+ * way to write an empty transition. Every state used in a transition must be
+ * declared. Everything after %inputs is input strings.
+ * <p>
+ * Input strings are returned the way NFADriver used to read them with
+ * Scanner: every line up to the last one that is not blank.
+ */
+public class NFAParser implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String EXTENDED = "%extended";
+    private static final String INPUTS = "%inputs";
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean eof;
+    // current line number, for error messages
+    private int line;
+    // bytes of the token or line being read
+    private byte[] scratch = new byte[256];
+    private int scratchLength;
+    // blank input lines held back until a non-blank line shows up
+    private final ArrayDeque<String> pendingInputs = new ArrayDeque<>();
+
+    /**
+     * Opens a file for parsing.
+     *
+     * @param file the NFA file
+     * @throws IOException if the file cannot be opened
+     */
+    public NFAParser(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * @param in the stream to parse, closed with the parser
+     */
+    public NFAParser(InputStream in) {
+        this(Channels.newChannel(in));
+    }
+
+    private NFAParser(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+    }
+
+    /**
+     * Reads the automaton part of the input, leaving the input strings to readInput.
+     *
+     * @return the NFA described by the input
+     * @throws IOException if the input cannot be read or is malformed
+     */
+    public NFA parse() throws IOException {
+        if (!readLine())
+            throw error("empty input");
+        String first = scratchString().trim();
+        if (first.equals(EXTENDED))
+            return parseExtended();
+        return parseClassic(first);
+    }
+
+    /**
+     * Returns the next input string after the automaton.
+     *
+     * @return the next input string, or null when there are none left
+     * @throws IOException if the input cannot be read
+     */
+    public String readInput() throws IOException {
+        if (!pendingInputs.isEmpty())
+            return pendingInputs.remove();
+        while (readLine()) {
+            String input = scratchString();
+            if (!input.isBlank()) {
+                if (pendingInputs.isEmpty())
+                    return input;
+                pendingInputs.add(input);
+                return pendingInputs.remove();
+            }
+            pendingInputs.add(input);
+        }
+        // only blank lines were left
+        pendingInputs.clear();
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The classic format: three lines of states and one line of transitions.
+     */
+    private NFA parseClassic(String finals) throws IOException {
+        NFA nfa = new NFA();
+        int[] pos = new int[1];
+        // the first line is the set of final states
+        byte[] bytes = finals.getBytes(StandardCharsets.UTF_8);
+        for (String name; (name = nextToken(bytes, bytes.length, pos)) != null; )
+            nfa.addFinalState(name);
+        // the second line is the start state
+        if (!readLine())
+            throw error("missing start state");
+        nfa.addStartState(scratchString().trim());
+        // the third line is the other states
+        if (!readLine())
+            throw error("missing state list");
+        pos[0] = 0;
+        for (String name; (name = nextToken(scratch, scratchLength, pos)) != null; )
+            nfa.addState(name);
+        // the fourth line is every transition as XsY
+        if (!readLine())
+            throw error("missing transitions");
+        for (int i = 0; i < scratchLength; ) {
+            if (isBlank(scratch[i])) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < scratchLength && !isBlank(scratch[end]))
+                end++;
+            if (end - i < 3)
+                throw error("bad transition " + new String(scratch, i, end - i, StandardCharsets.UTF_8));
+            if (scratch[i] >= 0 && scratch[i + 1] >= 0 && scratch[i + 2] >= 0) {
+                // ASCII, the common case: no decoding needed
+                nfa.addTransition(String.valueOf((char) scratch[i]), (char) scratch[i + 1], String.valueOf((char) scratch[i + 2]));
+            } else {
+                String tran = new String(scratch, i, end - i, StandardCharsets.UTF_8);
+                if (tran.length() < 3)
+                    throw error("bad transition " + tran);
+                nfa.addTransition(String.valueOf(tran.charAt(0)), tran.charAt(1), String.valueOf(tran.charAt(2)));
+            }
+            i = end;
+        }
+        return nfa;
+    }
+
+    /**
+     * The extended format: one declaration or transition per line.
+     */
+    private NFA parseExtended() throws IOException {
+        // transitions go straight into the NFA, declarations are held back to be added in order
+        NFA nfa = new NFA();
+        List<String> finals = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        String start = null;
+        // the line each state name is first used on in a transition, checked once everything is declared
+        HashMap<String, Integer> used = new HashMap<>();
+        int[] pos = new int[1];
+        while (readLine()) {
+            pos[0] = 0;
+            String first = nextToken(scratch, scratchLength, pos);
+            if (first == null || first.startsWith("#"))
+                continue;
+            if (first.equals(INPUTS))
+                break;
+            if (first.equals("final") || first.equals("states")) {
+                List<String> into = first.equals("final") ? finals : others;
+                for (String name; (name = nextToken(scratch, scratchLength, pos)) != null; )
+                    into.add(checkName(name));
+            } else if (first.equals("start")) {
+                String name = nextToken(scratch, scratchLength, pos);
+                if (name == null || nextToken(scratch, scratchLength, pos) != null)
+                    throw error("start takes exactly one state");
+                if (start != null)
+                    throw error("start state declared twice");
+                start = checkName(name);
+            } else {
+                String symbol = nextToken(scratch, scratchLength, pos);
+                String to = nextToken(scratch, scratchLength, pos);
+                if (symbol == null || to == null || nextToken(scratch, scratchLength, pos) != null)
+                    throw error("expected: from symbol to");
+                nfa.addTransition(first, unescape(symbol), to);
+                used.putIfAbsent(first, line);
+                used.putIfAbsent(to, line);
+            }
+        }
+        if (start == null)
+            throw error("no start state");
+        // add states in the same order as the classic format so a final start state is found
+        HashSet<String> declared = new HashSet<>();
+        for (String name : finals)
+            if (declared.add(name))
+                nfa.addFinalState(name);
+        declared.add(start);
+        nfa.addStartState(start);
+        for (String name : others)
+            if (declared.add(name))
+                nfa.addState(name);
+        for (Map.Entry<String, Integer> use : used.entrySet())
+            if (!declared.contains(use.getKey()))
+                throw error(use.getValue(), "transition uses undeclared state " + use.getKey());
+        return nfa;
+    }
+
+    private String checkName(String name) throws IOException {
+        if (name.indexOf(',') >= 0)
+            throw error("state name " + name + " contains a comma");
+        return name;
+    }
+
+    /**
+     * Decodes a symbol token.
+     *
+     * @param token one character or an escape
+     * @return the symbol, 'e' for epsilon
+     */
+    private char unescape(String token) throws IOException {
+        char c = decode(token);
+        // only \e may produce the epsilon sentinel
+        if (c == 'e' && !token.equals("\\e"))
+            throw error("symbol " + token + " is the letter e, which NFA reserves for epsilon; write \\e for an empty transition");
+        return c;
+    }
+
+    private char decode(String token) throws IOException {
+        if (token.length() == 1)
+            return token.charAt(0);
+        if (token.charAt(0) == '\\') {
+            if (token.length() == 2) {
+                switch (token.charAt(1)) {
+                    case 'e':
+                        return 'e';
+                    case 's':
+                        return ' ';
+                    case 't':
+                        return '\t';
+                    case '\\':
+                        return '\\';
+                    case '#':
+                        return '#';
+                    default:
+                        break;
+                }
+            } else if (token.length() == 6 && token.charAt(1) == 'u') {
+                try {
+                    return (char) Integer.parseInt(token.substring(2), 16);
+                } catch (NumberFormatException e) {
+                    // reported below
+                }
+            }
+        }
+        throw error("bad symbol " + token);
+    }
+
+    /**
+     * Reads the next blank separated token from bytes[pos[0]..length).
+     *
+     * @return the token, or null if only blanks are left
+     */
+    private static String nextToken(byte[] bytes, int length, int[] pos) {
+        int i = pos[0];
+        while (i < length && isBlank(bytes[i]))
+            i++;
+        if (i == length) {
+            pos[0] = i;
+            return null;
+        }
+        int start = i;
+        while (i < length && !isBlank(bytes[i]))
+            i++;
+        pos[0] = i;
+        return new String(bytes, start, i - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Reads the next line into scratch without its line terminator.
+     *
+     * @return false at the end of the input
+     */
+    private boolean readLine() throws IOException {
+        scratchLength = 0;
+        boolean any = false;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill())
+                break;
+            any = true;
+            byte b = buffer.get();
+            if (b == '\n')
+                break;
+            if (scratchLength == scratch.length) {
+                byte[] grown = new byte[scratch.length * 2];
+                System.arraycopy(scratch, 0, grown, 0, scratchLength);
+                scratch = grown;
+            }
+            scratch[scratchLength++] = b;
+        }
+        if (!any)
+            return false;
+        if (scratchLength > 0 && scratch[scratchLength - 1] == '\r')
+            scratchLength--;
+        line++;
+        return true;
+    }
+
+    /**
+     * Refills the buffer from the channel.
+     *
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        if (eof)
+            return false;
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private String scratchString() {
+        return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+    }
+
+    private IOException error(String message) {
+        return error(line, message);
+    }
+
+    private static IOException error(int line, String message) {
+        return new IOException("line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,205 @@
+package fa.nfa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import fa.dfa.CompiledDFA;
+import fa.dfa.DFA;
+import fa.dfa.DFASearch;
+import fa.dfa.OffHeapTable;
+
+/**
+ * Checks the fast matching paths against the plain DFA. Random NFAs,
+ * and any NFA files given, are converted with getDFA, and then for
+ * random inputs over their alphabet:
+ * <ul>
+ * <li>CompiledDFA.accepts and acceptsAll, full and partial, off-heap
+ * (copied, built with OffHeapTable.of and saved then mapped) and
+ * renumbered by optimize with int and short tables, must all agree
+ * with DFA.accepts;</li>
+ * <li>DFASearch.findAll, on a String and, when the text fits, on
+ * ISO-8859-1 bytes, must return the leftmost-longest matches found
+ * by trying every substring with DFA.accepts.</li>
+ * </ul>
+ * Prints the first disagreement and exits with status 1, or prints a
+ * summary and exits normally.
+ * Usage: java fa.nfa.SelfCheck [seed [rounds]] [nfa files...]
+ */
+public class SelfCheck {
+
+	//no e, which the parser and accepts read as epsilon
+	private static final String SYMBOLS = "abc";
+
+	private final Random random;
+	private long inputs;
+	private long matches;
+
+	private SelfCheck(long seed){
+		random = new Random(seed);
+	}
+
+	/**
+	 * @param args an optional seed and number of random NFAs, then NFA files
+	 * @throws IOException if a file cannot be read or is malformed
+	 */
+	public static void main(String[] args) throws IOException {
+		long seed = 1;
+		int rounds = 500;
+		int at = 0;
+		if(at < args.length && args[at].matches("-?\\d+")){
+			seed = Long.parseLong(args[at++]);
+			if(at < args.length && args[at].matches("\\d+")){
+				rounds = Integer.parseInt(args[at++]);
+			}
+		}
+		SelfCheck check = new SelfCheck(seed);
+		try{
+			for(; at < args.length; at++){
+				try(NFAParser parser = new NFAParser(Path.of(args[at]))){
+					check.check(args[at], parser.parse().getDFA());
+				}
+			}
+			for(int i = 0; i < rounds; i++){
+				check.check("random NFA " + i + " of seed " + seed, check.randomNFA().getDFA());
+			}
+		} catch(AssertionError e){
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+		System.out.println("ok: " + check.inputs + " inputs and " + check.matches
+			+ " search matches agree with DFA.accepts");
+	}
+
+	private NFA randomNFA(){
+		NFA nfa = new NFA();
+		int n = 2 + random.nextInt(5);
+		nfa.addStartState("q0");
+		for(int i = 1; i < n; i++){
+			if(random.nextInt(3) == 0){
+				nfa.addFinalState("q" + i);
+			} else {
+				nfa.addState("q" + i);
+			}
+		}
+		if(random.nextInt(4) == 0){
+			nfa.addFinalState("q0");
+		}
+		//every symbol appears once, so the alphabet is always SYMBOLS
+		for(int i = 0; i < SYMBOLS.length(); i++){
+			nfa.addTransition("q" + random.nextInt(n), SYMBOLS.charAt(i), "q" + random.nextInt(n));
+		}
+		for(int i = random.nextInt(3 * n); i > 0; i--){
+			char c = random.nextInt(4) == 0 ? 'e' : SYMBOLS.charAt(random.nextInt(SYMBOLS.length()));
+			nfa.addTransition("q" + random.nextInt(n), c, "q" + random.nextInt(n));
+		}
+		return nfa;
+	}
+
+	private String randomInput(char[] abc, int maxLength){
+		if(abc.length == 0 || random.nextInt(20) == 0){
+			return random.nextBoolean() ? "" : "e";
+		}
+		char[] ret = new char[random.nextInt(maxLength + 1)];
+		for(int i = 0; i < ret.length; i++){
+			ret[i] = abc[random.nextInt(abc.length)];
+		}
+		return new String(ret);
+	}
+
+	private void check(String what, DFA dfa) throws IOException {
+		char[] abc = new char[dfa.getABC().size()];
+		int k = 0;
+		for(char c : dfa.getABC()){
+			abc[k++] = c;
+		}
+		String[] batch = new String[random.nextInt(3 * CompiledDFA.LANES + 1)];
+		for(int i = 0; i < batch.length; i++){
+			batch[i] = randomInput(abc, 16);
+		}
+		boolean[] expected = new boolean[batch.length];
+		for(int i = 0; i < batch.length; i++){
+			expected[i] = dfa.accepts(batch[i]);
+		}
+		List<String> corpus = Arrays.asList(batch);
+		for(boolean partial : new boolean[]{false, true}){
+			CompiledDFA heap = new CompiledDFA(dfa, partial);
+			OffHeapTable built = OffHeapTable.of(dfa, partial);
+			Path file = Files.createTempFile("dfa", ".bin");
+			CompiledDFA mapped;
+			try{
+				built.save(file);
+				mapped = new CompiledDFA(OffHeapTable.map(file));
+			} finally {
+				Files.delete(file);
+			}
+			String how = what + (partial ? ", partial" : ", full");
+			agree(how, batch, expected, heap);
+			agree(how + ", offHeap", batch, expected, heap.offHeap());
+			agree(how + ", OffHeapTable.of", batch, expected, new CompiledDFA(built));
+			agree(how + ", mapped", batch, expected, mapped);
+			agree(how + ", optimize int", batch, expected, heap.optimize(corpus, false));
+			agree(how + ", optimize short", batch, expected, heap.optimize(corpus, true));
+			search(how, dfa, abc, new DFASearch(heap));
+		}
+	}
+
+	private void agree(String what, String[] batch, boolean[] expected, CompiledDFA table){
+		boolean[] all = table.acceptsAll(batch);
+		for(int i = 0; i < batch.length; i++){
+			if(table.accepts(batch[i]) != expected[i]){
+				throw new AssertionError(what + ": accepts(\"" + batch[i] + "\") is " + !expected[i]);
+			}
+			if(all[i] != expected[i]){
+				throw new AssertionError(what + ": acceptsAll gives " + !expected[i]
+					+ " for \"" + batch[i] + "\" at " + i + " of " + batch.length);
+			}
+		}
+		inputs += 2 * batch.length;
+	}
+
+	private void search(String what, DFA dfa, char[] abc, DFASearch search){
+		String text = randomInput(abc, 24);
+		if(text.equals("e")){
+			text = "";
+		}
+		List<DFASearch.Match> expected = new ArrayList<DFASearch.Match>();
+		int from = 0;
+		DFASearch.Match m;
+		while((m = longest(dfa, text, from)) != null){
+			expected.add(m);
+			from = m.length() == 0 ? m.getEnd() + 1 : m.getEnd();
+		}
+		String want = expected.toString();
+		String got = search.findAll(text).toString();
+		String gotBytes = want;
+		if(StandardCharsets.ISO_8859_1.newEncoder().canEncode(text)){
+			gotBytes = search.findAll(ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1))).toString();
+		}
+		if(!got.equals(want) || !gotBytes.equals(want)){
+			throw new AssertionError(what + ": findAll(\"" + text + "\") is " + got
+				+ " on the string and " + gotBytes + " on bytes, expected " + want);
+		}
+		matches += expected.size();
+	}
+
+	/**
+	 * @return the leftmost-longest match at or after from, by brute force
+	 */
+	private static DFASearch.Match longest(DFA dfa, String text, int from){
+		for(int start = from; start <= text.length(); start++){
+			for(int end = text.length(); end >= start; end--){
+				if(dfa.accepts(text.substring(start, end))){
+					return new DFASearch.Match(start, end);
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,110 @@
+package fa.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram. Values are bucketed by their highest
+ * set bit and the next three bits, so a percentile is reported within
+ * 12.5% of the true value using a fixed 512 counters.
+ */
+public class LatencyRecorder {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * @param nanos the latency of one request
+	 */
+	public void record(long nanos){
+		if(nanos < 0){
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucketOf(nanos));
+		count.increment();
+		total.add(nanos);
+	}
+
+	private static int bucketOf(long v){
+		if(v < SUB){
+			return (int) v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+		return (exp - SUB_BITS + 1) * SUB + sub;
+	}
+
+	/**
+	 * @return the smallest value that falls in the bucket
+	 */
+	private static long lowerBound(int bucket){
+		if(bucket < SUB){
+			return bucket;
+		}
+		int exp = bucket / SUB + SUB_BITS - 1;
+		long sub = bucket % SUB;
+		return (1L << exp) | (sub << (exp - SUB_BITS));
+	}
+
+	public long getCount(){
+		return count.sum();
+	}
+
+	/**
+	 * @return the mean latency in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getMean(){
+		long n = count.sum();
+		return n == 0 ? 0 : total.sum() / n;
+	}
+
+	/**
+	 * @param p the percentile, between 0 and 100
+	 * @return the approximate latency at that percentile in nanoseconds
+	 */
+	public long getPercentile(double p){
+		long[] snapshot = new long[buckets.length()];
+		long n = 0;
+		for(int i = 0; i < snapshot.length; i++){
+			snapshot[i] = buckets.get(i);
+			n += snapshot[i];
+		}
+		if(n == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(p / 100.0 * n);
+		long seen = 0;
+		for(int i = 0; i < snapshot.length; i++){
+			seen += snapshot[i];
+			if(seen >= rank && snapshot[i] > 0){
+				return lowerBound(i);
+			}
+		}
+		return lowerBound(snapshot.length - 1);
+	}
+
+	/**
+	 * Clears the histogram
+	 */
+	public void reset(){
+		for(int i = 0; i < buckets.length(); i++){
+			buckets.set(i, 0);
+		}
+		count.reset();
+		total.reset();
+	}
+
+	/**
+	 * @return count, mean, p50 and p99 as a JSON object, in microseconds
+	 */
+	public String toJson(){
+		return "{\"count\":" + getCount()
+			+ ",\"meanMicros\":" + getMean() / 1000
+			+ ",\"p50Micros\":" + getPercentile(50) / 1000
+			+ ",\"p99Micros\":" + getPercentile(99) / 1000 + "}";
+	}
+}
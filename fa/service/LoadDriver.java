@@ -0,0 +1,161 @@
+package fa.service;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local load generator for MatchServer. For each concurrency level
+ * 1, 2, 4, ... up to the maximum it runs that many client threads for
+ * a fixed time, each sending single-input accepts requests picked at
+ * random from an input file, and prints one line per level:
+ * <pre>
+ * clients  requests/s  p50(us)  p99(us)  errors
+ * </pre>
+ * Each client keeps one HTTP/1.1 connection open and sends every
+ * request with a single write, so Nagle's algorithm never holds a
+ * request body back waiting for the server's delayed ACK.
+ * Usage: java fa.service.LoadDriver port automaton inputs.txt [maxClients] [seconds]
+ */
+public class LoadDriver {
+
+	/**
+	 * One keep-alive connection to the server
+	 */
+	private static class Connection implements AutoCloseable {
+		private final Socket socket;
+		private final InputStream in;
+
+		private Connection(int port) throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			socket.setTcpNoDelay(true);
+			in = new BufferedInputStream(socket.getInputStream());
+		}
+
+		/**
+		 * Sends a request and reads a response with a Content-Length body
+		 * @return the status code
+		 */
+		private int exchange(byte[] request) throws IOException {
+			socket.getOutputStream().write(request);
+			String status = readLine();
+			int length = 0;
+			for(String line; !(line = readLine()).isEmpty(); ){
+				if(line.regionMatches(true, 0, "Content-Length:", 0, 15)){
+					length = Integer.parseInt(line.substring(15).trim());
+				}
+			}
+			in.readNBytes(length);
+			return Integer.parseInt(status.split(" ")[1]);
+		}
+
+		private String readLine() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			for(int c; (c = in.read()) != '\n'; ){
+				if(c < 0){
+					throw new EOFException("connection closed");
+				}
+				if(c != '\r'){
+					sb.append((char) c);
+				}
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public void close(){
+			try{
+				socket.close();
+			} catch(IOException e){
+				//nothing to do
+			}
+		}
+	}
+
+	/**
+	 * @param args port, automaton name, input file, and optionally
+	 * the largest number of clients (default 64) and seconds per level (default 5)
+	 * @throws IOException if the input file cannot be read
+	 * @throws InterruptedException if interrupted while waiting for clients
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 3){
+			System.err.println("usage: java fa.service.LoadDriver port automaton inputs.txt [maxClients] [seconds]");
+			System.exit(2);
+		}
+		int port = Integer.parseInt(args[0]);
+		String head = "POST /accepts?automaton=" + args[1] + " HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: ";
+		List<String> inputs = Files.readAllLines(Paths.get(args[2]));
+		if(inputs.isEmpty()){
+			System.err.println("ERROR: " + args[2] + " has no inputs");
+			System.exit(2);
+		}
+		//prebuild every request so clients only write bytes
+		List<byte[]> requests = new ArrayList<byte[]>();
+		for(String input : inputs){
+			byte[] body = input.getBytes(StandardCharsets.UTF_8);
+			byte[] req = (head + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+			byte[] msg = new byte[req.length + body.length];
+			System.arraycopy(req, 0, msg, 0, req.length);
+			System.arraycopy(body, 0, msg, req.length, body.length);
+			requests.add(msg);
+		}
+		int maxClients = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		long millis = (args.length > 4 ? Long.parseLong(args[4]) : 5) * 1000;
+
+		System.out.println(String.format("%8s %12s %9s %9s %7s", "clients", "requests/s", "p50(us)", "p99(us)", "errors"));
+		for(int clients = 1; clients <= maxClients; clients *= 2){
+			LatencyRecorder latency = new LatencyRecorder();
+			LongAdder errors = new LongAdder();
+			long end = System.currentTimeMillis() + millis;
+			List<Thread> threads = new ArrayList<Thread>();
+			for(int i = 0; i < clients; i++){
+				Thread t = new Thread(() -> {
+					ThreadLocalRandom rnd = ThreadLocalRandom.current();
+					Connection conn = null;
+					while(System.currentTimeMillis() < end){
+						byte[] request = requests.get(rnd.nextInt(requests.size()));
+						long t0 = System.nanoTime();
+						try{
+							if(conn == null){
+								conn = new Connection(port);
+							}
+							if(conn.exchange(request) == 200){
+								latency.record(System.nanoTime() - t0);
+							} else {
+								errors.increment();
+							}
+						} catch(IOException | RuntimeException e){
+							errors.increment();
+							if(conn != null){
+								conn.close();
+								conn = null;
+							}
+						}
+					}
+					if(conn != null){
+						conn.close();
+					}
+				}, "load-" + i);
+				threads.add(t);
+				t.start();
+			}
+			for(Thread t : threads){
+				t.join();
+			}
+			System.out.println(String.format("%8d %12.0f %9d %9d %7d", clients,
+				latency.getCount() * 1000.0 / millis,
+				latency.getPercentile(50) / 1000, latency.getPercentile(99) / 1000, errors.sum()));
+		}
+	}
+}
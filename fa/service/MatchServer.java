@@ -0,0 +1,204 @@
+package fa.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import fa.dfa.DFASearch;
+import fa.nfa.DeterminizationException;
+
+/**
+ * HTTP front end for a MatchService, bound to the loopback interface
+ * only. Each request runs on its own task of
+ * MatchService.newRequestExecutor(). Endpoints:
+ * <pre>
+ * POST /accepts?automaton=NAME   body: one input per line
+ *                                reply: yes or no per line
+ * POST /search?automaton=NAME    body: text
+ *                                reply: "start end" per match
+ * GET  /automata                 reply: one name per line
+ * GET  /stats                    reply: JSON latencies and counters
+ * </pre>
+ * A body with a single line is queued for batching with other
+ * requests; a body with many lines is already a batch and is
+ * answered directly.
+ * <p>
+ * The JDK server writes the response headers and body separately, and
+ * without TCP_NODELAY the body waits for the client's delayed ACK,
+ * about 40ms per request. main turns it on; a process that embeds the
+ * server should launch with -Dsun.net.httpserver.nodelay=true. The
+ * property is JVM wide and is read once, when the JDK server
+ * implementation is first loaded.
+ */
+public class MatchServer {
+
+	private static final String NODELAY = "sun.net.httpserver.nodelay";
+
+	private final MatchService service;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * @param service the service to expose
+	 * @param port the loopback port, 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public MatchServer(MatchService service, int port) throws IOException {
+		this.service = service;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = MatchService.newRequestExecutor();
+		server.setExecutor(executor);
+		server.createContext("/accepts", this::handleAccepts);
+		server.createContext("/search", this::handleSearch);
+		server.createContext("/automata", ex -> reply(ex, 200, String.join("\n", service.names()) + "\n"));
+		server.createContext("/stats", ex -> reply(ex, 200, service.stats() + "\n"));
+	}
+
+	public void start(){
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits up to a second for running ones
+	 */
+	public void stop(){
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the port the server is bound to
+	 */
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	private void handleAccepts(HttpExchange ex) throws IOException {
+		String name = automaton(ex);
+		if(name == null){
+			return;
+		}
+		String[] inputs = body(ex).split("\r?\n", -1);
+		int n = inputs.length;
+		//a trailing newline does not start another input
+		if(n > 1 && inputs[n - 1].isEmpty()){
+			n--;
+		}
+		StringBuilder out = new StringBuilder();
+		try{
+			if(n == 1){
+				out.append(service.accepts(name, inputs[0]) ? "yes" : "no").append('\n');
+			} else {
+				CharSequence[] batch = new CharSequence[n];
+				System.arraycopy(inputs, 0, batch, 0, n);
+				for(boolean b : service.acceptsAll(name, batch)){
+					out.append(b ? "yes" : "no").append('\n');
+				}
+			}
+		} catch(IllegalArgumentException e){
+			reply(ex, 404, e.getMessage() + "\n");
+			return;
+		}
+		reply(ex, 200, out.toString());
+	}
+
+	private void handleSearch(HttpExchange ex) throws IOException {
+		String name = automaton(ex);
+		if(name == null){
+			return;
+		}
+		StringBuilder out = new StringBuilder();
+		try{
+			for(DFASearch.Match m : service.search(name, body(ex))){
+				out.append(m.getStart()).append(' ').append(m.getEnd()).append('\n');
+			}
+		} catch(IllegalArgumentException e){
+			reply(ex, 404, e.getMessage() + "\n");
+			return;
+		}
+		reply(ex, 200, out.toString());
+	}
+
+	/**
+	 * Checks the method and reads the automaton parameter,
+	 * replying with an error if either is wrong
+	 * @return the automaton name or null if an error was sent
+	 */
+	private static String automaton(HttpExchange ex) throws IOException {
+		if(!"POST".equals(ex.getRequestMethod())){
+			reply(ex, 405, "use POST\n");
+			return null;
+		}
+		String query = ex.getRequestURI().getRawQuery();
+		if(query != null){
+			for(String param : query.split("&")){
+				if(param.startsWith("automaton=")){
+					return URLDecoder.decode(param.substring("automaton=".length()), StandardCharsets.UTF_8);
+				}
+			}
+		}
+		reply(ex, 400, "missing automaton parameter\n");
+		return null;
+	}
+
+	private static String body(HttpExchange ex) throws IOException {
+		return new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+	}
+
+	private static void reply(HttpExchange ex, int status, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		ex.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = ex.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Starts a server with automata loaded from NFA files.
+	 * Usage: java fa.service.MatchServer port name=file.txt [name=file.txt ...]
+	 * @param args the port followed by name=file pairs
+	 * @throws IOException if a file cannot be loaded or the port bound
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2){
+			System.err.println("usage: java fa.service.MatchServer port name=file.txt [name=file.txt ...]");
+			System.exit(2);
+		}
+		//this process owns the JVM, so set the launch flag before any server is loaded
+		if(System.getProperty(NODELAY) == null){
+			System.setProperty(NODELAY, "true");
+		}
+		MatchService service = new MatchService();
+		for(int i = 1; i < args.length; i++){
+			int eq = args[i].indexOf('=');
+			if(eq <= 0){
+				System.err.println("ERROR: expected name=file, got " + args[i]);
+				System.exit(2);
+			}
+			String name = args[i].substring(0, eq);
+			try{
+				service.load(name, Paths.get(args[i].substring(eq + 1)));
+			} catch(DeterminizationException e){
+				//one runaway automaton should not keep the others from being served
+				System.err.println("ERROR: skipping " + name + ": " + e.getMessage());
+			}
+		}
+		if(service.names().isEmpty()){
+			System.err.println("ERROR: no automata loaded");
+			System.exit(1);
+		}
+		MatchServer server = new MatchServer(service, Integer.parseInt(args[0]));
+		server.start();
+		System.out.println("listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort()
+			+ " with " + service.names());
+	}
+}
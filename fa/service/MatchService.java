@@ -0,0 +1,346 @@
+package fa.service;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fa.MetricsRegistry;
+import fa.dfa.CompiledDFA;
+import fa.dfa.DFA;
+import fa.dfa.DFASearch;
+import fa.nfa.DeterminizationBudget;
+import fa.nfa.DeterminizationException;
+import fa.nfa.NFAParser;
+
+/**
+ * In-process matching service: a registry of compiled automata, loaded
+ * from NFA files, that answers accepts and search requests from any
+ * number of threads.
+ * <p>
+ * Single accepts requests are batched by flat combining: a request
+ * joins its automaton's queue, and whichever caller finds the queue
+ * unowned drains it, up to MAX_BATCH inputs at a time through
+ * CompiledDFA.acceptsAll, and completes every waiting future. Under
+ * light load a batch holds one input; under heavy load batches fill
+ * up without any timer or extra thread. No caller drains more than
+ * MAX_ROUNDS batches: after that the queue moves to the common pool,
+ * so one unlucky caller does not serve everyone else's requests.
+ * <p>
+ * The executor used by MatchServer runs one virtual thread per task
+ * when the runtime has them (Java 21 and later) and a cached pool of
+ * platform threads otherwise.
+ */
+public class MatchService {
+
+	/** the most inputs one combined batch takes from a queue */
+	public static final int MAX_BATCH = 64;
+
+	/** the most batches one caller drains before handing the queue off */
+	public static final int MAX_ROUNDS = 4;
+
+	/**
+	 * The most searchers, each with its own subset caches, one automaton
+	 * creates. Searches beyond this many at once wait for one to be free.
+	 */
+	public static final int MAX_SEARCHERS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Limits used by load(name, file), so a file whose subset
+	 * construction blows up is rejected instead of exhausting the heap
+	 */
+	public static final DeterminizationBudget DEFAULT_BUDGET = DeterminizationBudget.UNLIMITED
+		.withMaxStates(1 << 20).withMaxBytes(512L << 20).withMaxMillis(60_000);
+
+	private final ConcurrentHashMap<String, Automaton> registry;
+	private final LatencyRecorder acceptLatency;
+	private final LatencyRecorder searchLatency;
+	private final MetricsRegistry metrics;
+
+	/**
+	 * A pending single accepts request
+	 */
+	private static class Pending {
+		private final String input;
+		private final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+		private Pending(String input){
+			this.input = input;
+		}
+	}
+
+	/**
+	 * One registered automaton with its batching queue and a pool of
+	 * at most MAX_SEARCHERS searchers, which are not thread safe
+	 */
+	private static class Automaton {
+		private final CompiledDFA table;
+		private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private final ArrayBlockingQueue<DFASearch> searchers = new ArrayBlockingQueue<DFASearch>(MAX_SEARCHERS);
+		private final AtomicInteger created = new AtomicInteger();
+
+		private Automaton(CompiledDFA table){
+			this.table = table;
+		}
+
+		/**
+		 * Drains the queue unless another thread already is, for at most
+		 * MAX_ROUNDS batches. The loop re-checks after letting go, so a
+		 * request queued while the owner was finishing is never stranded,
+		 * and a queue still busy after the last round is handed to the
+		 * common pool rather than keeping its caller. If a batch fails
+		 * every request in it completes with the failure, whoever queued it.
+		 */
+		private void drain(){
+			//only the thread that wins the queue pays for the batch arrays
+			CharSequence[] inputs = null;
+			Pending[] batch = null;
+			boolean[] results = null;
+			for(int round = 0; !pending.isEmpty(); round++){
+				if(round == MAX_ROUNDS){
+					ForkJoinPool.commonPool().execute(this::drain);
+					return;
+				}
+				if(!draining.compareAndSet(false, true)){
+					return;
+				}
+				if(batch == null){
+					inputs = new CharSequence[MAX_BATCH];
+					batch = new Pending[MAX_BATCH];
+					results = new boolean[MAX_BATCH];
+				}
+				int n = 0;
+				try{
+					Pending p;
+					while(n < MAX_BATCH && (p = pending.poll()) != null){
+						batch[n] = p;
+						inputs[n++] = p.input;
+					}
+					if(n < MAX_BATCH){
+						CharSequence[] exact = new CharSequence[n];
+						System.arraycopy(inputs, 0, exact, 0, n);
+						table.acceptsAll(exact, results);
+					} else {
+						table.acceptsAll(inputs, results);
+					}
+					for(int i = 0; i < n; i++){
+						batch[i].result.complete(results[i]);
+					}
+				} catch(Throwable e){
+					for(int i = 0; i < n; i++){
+						batch[i].result.completeExceptionally(e);
+					}
+				} finally {
+					for(int i = 0; i < n; i++){
+						batch[i] = null;
+						inputs[i] = null;
+					}
+					draining.set(false);
+				}
+			}
+		}
+
+		/**
+		 * Takes a free searcher, creates one while fewer than
+		 * MAX_SEARCHERS exist, and otherwise waits for one to come back
+		 */
+		private DFASearch borrowSearcher(){
+			DFASearch s = searchers.poll();
+			if(s != null){
+				return s;
+			}
+			for(int n = created.get(); n < MAX_SEARCHERS; n = created.get()){
+				if(created.compareAndSet(n, n + 1)){
+					return new DFASearch(table);
+				}
+			}
+			try{
+				return searchers.take();
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted waiting for a searcher", e);
+			}
+		}
+	}
+
+	public MatchService(){
+		registry = new ConcurrentHashMap<String, Automaton>();
+		acceptLatency = new LatencyRecorder();
+		searchLatency = new LatencyRecorder();
+		metrics = new MetricsRegistry();
+	}
+
+	/**
+	 * Same as load(name, file, DEFAULT_BUDGET)
+	 * @param name the registry key
+	 * @param file an NFA file in any format NFAParser reads
+	 * @throws IOException if the file cannot be read or is malformed
+	 * @throws DeterminizationException if the conversion exceeds DEFAULT_BUDGET
+	 */
+	public void load(String name, Path file) throws IOException {
+		load(name, file, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Parses an NFA file, converts it within the budget and registers
+	 * the result, replacing any automaton already registered under the
+	 * name. Nothing is registered if the conversion fails.
+	 * @param name the registry key
+	 * @param file an NFA file in any format NFAParser reads
+	 * @param budget limits for the NFA to DFA conversion
+	 * @throws IOException if the file cannot be read or is malformed
+	 * @throws DeterminizationException if the conversion exceeds the budget
+	 */
+	public void load(String name, Path file, DeterminizationBudget budget) throws IOException {
+		try(NFAParser parser = new NFAParser(file)){
+			register(name, parser.parse().getDFA(budget));
+		}
+	}
+
+	/**
+	 * Compiles and registers a DFA. Transitions into dead states are
+	 * dropped, so a rejected input stops at the first one.
+	 * @param name the registry key
+	 * @param dfa the automaton
+	 */
+	public void register(String name, DFA dfa){
+		CompiledDFA table = new CompiledDFA(dfa, true);
+		table.setMetrics(metrics);
+		registry.put(name, new Automaton(table));
+	}
+
+	/**
+	 * @return the names of the registered automata, sorted
+	 */
+	public Set<String> names(){
+		return new TreeSet<String>(registry.keySet());
+	}
+
+	private Automaton get(String name){
+		Automaton a = registry.get(name);
+		if(a == null){
+			throw new IllegalArgumentException("no automaton named " + name);
+		}
+		return a;
+	}
+
+	/**
+	 * Queues one input for the next combined batch. The recorded
+	 * latency runs from queueing until the future completes.
+	 * @param name the automaton
+	 * @param input the input string
+	 * @return completes with true if input is in the language
+	 */
+	public CompletableFuture<Boolean> acceptsAsync(String name, String input){
+		long t0 = System.nanoTime();
+		return submit(name, input).whenComplete((r, e) -> acceptLatency.record(System.nanoTime() - t0));
+	}
+
+	/**
+	 * The recorded latency runs from queueing until this returns, so it
+	 * includes any batches the caller drains for other requests.
+	 * @param name the automaton
+	 * @param input the input string
+	 * @return true if input is in the language
+	 */
+	public boolean accepts(String name, String input){
+		long t0 = System.nanoTime();
+		try{
+			return submit(name, input).join();
+		} finally {
+			acceptLatency.record(System.nanoTime() - t0);
+		}
+	}
+
+	private CompletableFuture<Boolean> submit(String name, String input){
+		//a null would fail the whole batch it lands in
+		Objects.requireNonNull(input, "input");
+		Automaton a = get(name);
+		Pending p = new Pending(input);
+		a.pending.add(p);
+		a.drain();
+		return p.result;
+	}
+
+	/**
+	 * Answers a batch the caller already has, without queueing
+	 * @param name the automaton
+	 * @param inputs the input strings
+	 * @return for each input, true if it is in the language
+	 */
+	public boolean[] acceptsAll(String name, CharSequence[] inputs){
+		Automaton a = get(name);
+		long t0 = System.nanoTime();
+		boolean[] ret = a.table.acceptsAll(inputs);
+		acceptLatency.record(System.nanoTime() - t0);
+		return ret;
+	}
+
+	/**
+	 * @param name the automaton
+	 * @param text the text to search
+	 * @return the leftmost-longest matches in order
+	 */
+	public List<DFASearch.Match> search(String name, CharSequence text){
+		Automaton a = get(name);
+		long t0 = System.nanoTime();
+		DFASearch s = a.borrowSearcher();
+		try{
+			return new ArrayList<DFASearch.Match>(s.findAll(text));
+		} finally {
+			a.searchers.offer(s);
+			searchLatency.record(System.nanoTime() - t0);
+		}
+	}
+
+	/**
+	 * @return request latencies and match counters as a JSON object
+	 */
+	public String stats(){
+		return "{\"accepts\":" + acceptLatency.toJson()
+			+ ",\"search\":" + searchLatency.toJson()
+			+ ",\"metrics\":" + metrics.toJson() + "}";
+	}
+
+	/**
+	 * Clears the latency histograms and counters
+	 */
+	public void resetStats(){
+		acceptLatency.reset();
+		searchLatency.reset();
+		metrics.reset();
+	}
+
+	/**
+	 * Creates an executor that starts one virtual thread per task when
+	 * the runtime supports it, found by reflection so this compiles and
+	 * runs on older JDKs, and a cached thread pool otherwise.
+	 * @return the executor
+	 */
+	public static ExecutorService newRequestExecutor(){
+		try{
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch(ReflectiveOperationException e){
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "match-worker");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+}